@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.io.IOException;
+
+import io.github.ejif.chromej.ChromeJ;
+import io.github.ejif.chromej.ConnectedTarget;
+import io.github.ejif.chromej.ConnectionException;
+import io.github.ejif.chromej.FakeChromeServer;
+import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
+
+/**
+ * Canned data shared by the benchmarks, and helpers to connect to a {@link FakeChromeServer}.
+ */
+final class BenchmarkTargets {
+
+    static final String EVALUATE_RESULT = "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}";
+
+    static final EvaluateRequest EVALUATE_REQUEST = EvaluateRequest.builder()
+        .expression("1 + 1")
+        .returnByValue(true)
+        .build();
+
+    private BenchmarkTargets() {}
+
+    /**
+     * Starts a fake server that answers <code>Runtime.evaluate</code> with a small canned result.
+     */
+    static FakeChromeServer startServer() throws IOException {
+        FakeChromeServer server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", EVALUATE_RESULT);
+        return server;
+    }
+
+    static ConnectedTarget connect(FakeChromeServer server) throws ConnectionException {
+        return ChromeJ.create(server.getUrl()).newTab();
+    }
+
+    /**
+     * Builds the result of <code>DOM.getOuterHTML</code> for a document of the given length.
+     */
+    static String outerHtmlResult(int length) {
+        StringBuilder html = new StringBuilder(length + 64).append("<html><body>");
+        while (html.length() < length - "</body></html>".length())
+            html.append("<p class=\\\"x\\\">Hello</p>");
+        html.append("</body></html>");
+        return "{\"outerHTML\":\"" + html + "\"}";
+    }
+
+    static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+}
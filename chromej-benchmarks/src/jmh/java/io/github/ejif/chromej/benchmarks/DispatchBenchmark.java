@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.github.ejif.chromej.protocol.AsyncCommandExecutor;
+import io.github.ejif.chromej.protocol.AsyncWsProtocol;
+import io.github.ejif.chromej.protocol.AsyncWsProtocolImpl;
+import io.github.ejif.chromej.protocol.runtime.AsyncRuntime;
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+/**
+ * Measures the cost of dispatching a command through the generated protocol implementations, without
+ * any I/O: commands are handed to an executor that returns an already completed stage. The protocol
+ * and its domain implementations are created once per trial, so the difference between
+ * {@link #throughProtocol()} and {@link #direct()} is the dispatch overhead alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    private static final CompletableFuture<Object> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final AsyncCommandExecutor executor = new AsyncCommandExecutor() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletionStage<T> executeAsync(String method, Object params, Class<T> resultType) {
+            return (CompletionStage<T>) COMPLETED;
+        }
+    };
+    private AsyncWsProtocol protocol;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        protocol = new AsyncWsProtocolImpl(executor);
+        // create the domain implementation up front rather than on the first measured call
+        protocol.getRuntime();
+    }
+
+    @Benchmark
+    public AsyncRuntime domainLookup() {
+        return protocol.getRuntime();
+    }
+
+    @Benchmark
+    public CompletionStage<EvaluateResponse> throughProtocol() {
+        return protocol.getRuntime().evaluate(BenchmarkTargets.EVALUATE_REQUEST);
+    }
+
+    @Benchmark
+    public CompletionStage<EvaluateResponse> direct() {
+        return executor.executeAsync("Runtime.evaluate", BenchmarkTargets.EVALUATE_REQUEST, EvaluateResponse.class);
+    }
+}
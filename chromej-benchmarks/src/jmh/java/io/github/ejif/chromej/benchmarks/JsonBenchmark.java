@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.ejif.chromej.protocol.dom.GetOuterHTMLResponse;
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+/**
+ * Measures encoding and decoding of generated types without any I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({ "1024", "1048576", "8388608" })
+    public int htmlLength;
+
+    private String outerHtmlResult;
+
+    @Setup
+    public void setUp() {
+        outerHtmlResult = BenchmarkTargets.outerHtmlResult(htmlLength);
+    }
+
+    @Benchmark
+    public String encodeEvaluateRequest() throws IOException {
+        return mapper.writeValueAsString(BenchmarkTargets.EVALUATE_REQUEST);
+    }
+
+    @Benchmark
+    public EvaluateResponse decodeEvaluateResponse() throws IOException {
+        return mapper.readValue(BenchmarkTargets.EVALUATE_RESULT, EvaluateResponse.class);
+    }
+
+    @Benchmark
+    public GetOuterHTMLResponse decodeOuterHtmlResponse() throws IOException {
+        return mapper.readValue(outerHtmlResult, GetOuterHTMLResponse.class);
+    }
+}
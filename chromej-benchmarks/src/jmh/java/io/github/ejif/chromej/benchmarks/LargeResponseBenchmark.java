@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.github.ejif.chromej.ConnectedTarget;
+import io.github.ejif.chromej.FakeChromeServer;
+import io.github.ejif.chromej.protocol.dom.GetOuterHTMLRequest;
+import io.github.ejif.chromej.protocol.dom.GetOuterHTMLResponse;
+import io.github.ejif.chromej.protocol.dom.NodeId;
+
+/**
+ * Measures a round trip of <code>DOM.getOuterHTML</code> for documents of increasing size, which is
+ * dominated by reading and decoding the response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LargeResponseBenchmark {
+
+    private static final GetOuterHTMLRequest REQUEST = GetOuterHTMLRequest.builder()
+        .nodeId(NodeId.of(1))
+        .build();
+
+    @Param({ "1024", "1048576", "8388608" })
+    public int htmlLength;
+
+    private FakeChromeServer server;
+    private ConnectedTarget target;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = BenchmarkTargets.startServer();
+        server.setResult("DOM.getOuterHTML", BenchmarkTargets.outerHtmlResult(htmlLength));
+        target = BenchmarkTargets.connect(server);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkTargets.closeQuietly(target);
+        BenchmarkTargets.closeQuietly(server);
+    }
+
+    @Benchmark
+    public GetOuterHTMLResponse getOuterHtml() {
+        return target.getProtocol().getDOM().getOuterHTML(REQUEST);
+    }
+}
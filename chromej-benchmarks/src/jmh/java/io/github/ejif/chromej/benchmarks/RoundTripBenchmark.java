@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.github.ejif.chromej.ConnectedTarget;
+import io.github.ejif.chromej.FakeChromeServer;
+import io.github.ejif.chromej.LoadCondition;
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+/**
+ * Measures the latency of a single command over a loopback connection, through each of the ways a
+ * command can be executed, and of a navigation that waits for an event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    private FakeChromeServer server;
+    private ConnectedTarget target;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = BenchmarkTargets.startServer();
+        target = BenchmarkTargets.connect(server);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkTargets.closeQuietly(target);
+        BenchmarkTargets.closeQuietly(server);
+    }
+
+    @Benchmark
+    public EvaluateResponse executeAsync() {
+        return target.executeAsync("Runtime.evaluate", BenchmarkTargets.EVALUATE_REQUEST, EvaluateResponse.class).join();
+    }
+
+    @Benchmark
+    public EvaluateResponse syncProtocol() {
+        return target.getProtocol().getRuntime().evaluate(BenchmarkTargets.EVALUATE_REQUEST);
+    }
+
+    @Benchmark
+    public EvaluateResponse asyncProtocol() {
+        return target.getAsyncProtocol().getRuntime().evaluate(BenchmarkTargets.EVALUATE_REQUEST)
+            .toCompletableFuture()
+            .join();
+    }
+
+    @Benchmark
+    public void navigateAndWait() {
+        target.navigateAndWait("about:blank", LoadCondition.load(), 10_000);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import io.github.ejif.chromej.ConnectedTarget;
+import io.github.ejif.chromej.FakeChromeServer;
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+/**
+ * Measures how many commands per second one connection sustains when shared by 1, 16 or 256
+ * callers, each executing one command at a time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+
+    private FakeChromeServer server;
+    private ConnectedTarget target;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = BenchmarkTargets.startServer();
+        target = BenchmarkTargets.connect(server);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkTargets.closeQuietly(target);
+        BenchmarkTargets.closeQuietly(server);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public EvaluateResponse callers1() {
+        return evaluate();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public EvaluateResponse callers16() {
+        return evaluate();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public EvaluateResponse callers256() {
+        return evaluate();
+    }
+
+    private EvaluateResponse evaluate() {
+        return target.executeAsync("Runtime.evaluate", BenchmarkTargets.EVALUATE_REQUEST, EvaluateResponse.class).join();
+    }
+}
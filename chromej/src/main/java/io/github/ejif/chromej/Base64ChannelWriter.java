@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Decodes base64 text into a {@link WritableByteChannel} through a single reusable direct buffer,
+ * so decoding a large payload never allocates a byte array the size of the decoded data.
+ * <p>
+ * A writer may be fed several chunks, each of which is a complete base64 string of its own, as
+ * Chrome sends them: each chunk of a stream read with <code>IO.read</code> is encoded, and padded,
+ * separately. Whitespace is ignored; padding is optional, but if present must complete the last
+ * quantum of its chunk.
+ */
+final class Base64ChannelWriter {
+
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++)
+            DECODE[alphabet.charAt(i)] = i;
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    private int bits;
+    private int bitCount;
+
+    /**
+     * @param channel
+     *            The channel to write decoded bytes to
+     * @param bufferSize
+     *            The size of the direct buffer that decoded bytes are staged in
+     */
+    Base64ChannelWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Decodes the given base64 text, which must be complete on its own, and writes it to the
+     * channel.
+     *
+     * @throws IOException
+     *             if the text is not valid base64, or writing to the channel fails
+     */
+    void write(CharSequence base64) throws IOException {
+        int characters = 0;
+        int padding = 0;
+        try {
+            for (int i = 0; i < base64.length(); i++) {
+                char c = base64.charAt(i);
+                if (c == '=') {
+                    padding++;
+                    continue;
+                }
+                int value = c < DECODE.length ? DECODE[c] : -1;
+                if (value < 0) {
+                    if (Character.isWhitespace(c))
+                        continue;
+                    throw new IOException("Invalid base64 character: " + c);
+                }
+                if (padding > 0)
+                    throw new IOException("Invalid base64: data after padding");
+                characters++;
+                bits = ((bits << 6) | value) & 0xffff;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    if (!buffer.hasRemaining())
+                        drain();
+                    buffer.put((byte) (bits >> bitCount));
+                }
+            }
+            if (characters % 4 == 1)
+                throw new IOException("Invalid base64: truncated quantum");
+            if (padding > 0 && (characters + padding) % 4 != 0)
+                throw new IOException("Invalid base64: wrong amount of padding");
+        } finally {
+            // the bits left over are the padding of the last quantum
+            bits = 0;
+            bitCount = 0;
+        }
+    }
+
+    /**
+     * Writes raw bytes to the channel, for payloads that were sent without base64 encoding.
+     */
+    void writeRaw(byte[] bytes) throws IOException {
+        bits = 0;
+        bitCount = 0;
+        drain();
+        ByteBuffer raw = ByteBuffer.wrap(bytes);
+        while (raw.hasRemaining())
+            channel.write(raw);
+    }
+
+    /**
+     * Writes any staged bytes to the channel.
+     */
+    void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Options for individual commands, which override the defaults of a connection's
+ * {@link WebSocketOptions}. Pass them to {@link ConnectedWebSocket#getProtocol(CallOptions)},
+ * {@link ConnectedWebSocket#getAsyncProtocol(CallOptions)} or
+ * {@link ConnectedWebSocket#batch(CallOptions)}:
+ *
+ * <pre>
+ * target.getProtocol(CallOptions.builder()
+ *     .timeoutMillis(60_000)
+ *     .build()).getPage().printToPDF(request);
+ * </pre>
+ */
+@Builder(toBuilder = true)
+@Data
+public final class CallOptions {
+
+    /**
+     * The {@link #getTimeoutMillis() timeout} that stands for the connection's timeout for the
+     * command.
+     */
+    public static final long DEFAULT_TIMEOUT = -1;
+
+    private static final CallOptions DEFAULTS = builder().build();
+
+    /**
+     * How long to wait for a response to each command. If {@link #DEFAULT_TIMEOUT}, the timeout
+     * configured for the command's domain by {@link WebSocketOptions#getTimeoutMillisByDomain()} is
+     * used, or else the connection's default timeout.
+     */
+    @Builder.Default
+    private final long timeoutMillis = DEFAULT_TIMEOUT;
+
+    /**
+     * If set, each command waits no later than this deadline for a response, even if its timeout
+     * has not elapsed yet.
+     */
+    private final Deadline deadline;
+
+    /**
+     * If set, cancelling this token fails each command that is still awaiting a response.
+     */
+    private final CancellationToken cancellationToken;
+
+    /**
+     * @return Options that use the connection's defaults
+     */
+    public static CallOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Resolves how long to wait for a response to the given command.
+     */
+    long getTimeoutMillis(String method, WebSocketOptions options) {
+        long timeout = timeoutMillis != DEFAULT_TIMEOUT ? timeoutMillis : options.getTimeoutMillis(method);
+        if (deadline != null)
+            timeout = Math.min(timeout, deadline.remainingMillis());
+        return timeout;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A token used to cancel commands that are awaiting a response. Commands executed with a token (see
+ * {@link CallOptions#getCancellationToken()}) fail with a
+ * {@link java.util.concurrent.CancellationException} as soon as the token is cancelled, and stop
+ * counting towards the maximum number of in-flight commands. Chrome may still run a command that
+ * has already been sent; its response is discarded.
+ * <p>
+ * One token can be shared by every command made on behalf of a job, so that cancelling the job
+ * stops all of its outstanding work.
+ */
+public final class CancellationToken {
+
+    private static final Logger log = LoggerFactory.getLogger(CancellationToken.class);
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private boolean cancelled;
+
+    /**
+     * Cancels every command executed with this token that is still awaiting a response, and any
+     * command executed with it later. Does nothing if this token has already been cancelled.
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled)
+                return;
+            cancelled = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : toRun) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.warn("Error in cancellation callback", e);
+            }
+        }
+    }
+
+    /**
+     * @return Whether {@link #cancel()} has been called
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers a callback to run when this token is cancelled, or runs it immediately if it
+     * already has been.
+     *
+     * @return A subscription which unregisters the callback when closed
+     */
+    Subscription onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (this) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> {};
+    }
+}
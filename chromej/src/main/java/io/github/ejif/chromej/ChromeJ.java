@@ -9,7 +9,9 @@ import java.net.URL;
 
 import feign.Feign;
 import feign.jackson.JacksonDecoder;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 
 /**
  * An instance of {@link ChromeJ} is configured with the URL of Chrome's HTTP protocol, which can be
@@ -19,11 +21,22 @@ import lombok.Data;
 public final class ChromeJ {
 
     private final HttpProtocol httpProtocol;
+    private final WebSocketOptions webSocketOptions;
+    @Getter(AccessLevel.NONE)
+    private final PrewarmedTabs prewarmedTabs;
 
     private ChromeJ(String url) {
-        this.httpProtocol = Feign.builder()
+        this(Feign.builder()
             .decoder(new JacksonDecoder())
-            .target(HttpProtocol.class, url);
+            .target(HttpProtocol.class, url),
+            WebSocketOptions.defaults(),
+            null);
+    }
+
+    private ChromeJ(HttpProtocol httpProtocol, WebSocketOptions webSocketOptions, PrewarmedTabs prewarmedTabs) {
+        this.httpProtocol = httpProtocol;
+        this.webSocketOptions = webSocketOptions;
+        this.prewarmedTabs = prewarmedTabs;
     }
 
     /**
@@ -78,18 +91,63 @@ public final class ChromeJ {
      */
     public ConnectedBrowser getBrowser() throws ConnectionException {
         Browser browser = httpProtocol.getBrowser();
-        return new ConnectedBrowser(browser, ConnectedWebSocket.DEFAULT_TIMEOUT_MILLIS);
+        return new ConnectedBrowser(browser, webSocketOptions, httpProtocol);
     }
 
     /**
-     * Opens a new tab and creates a WebSocket connection with it.
+     * Opens a new tab and creates a WebSocket connection with it. If this instance has prewarmed
+     * tabs (see {@link #withPrewarmedTabs(int)}), one of them is returned instead.
      *
      * @return The {@link ConnectedTarget} instance
      * @throws ConnectionException
      *             if an error occurred when establishing a connection
      */
     public ConnectedTarget newTab() throws ConnectionException {
+        if (prewarmedTabs != null)
+            return prewarmedTabs.take();
         Target target = httpProtocol.newTab();
-        return new ConnectedTarget(target, ConnectedWebSocket.DEFAULT_TIMEOUT_MILLIS);
+        return new ConnectedTarget(target, webSocketOptions, httpProtocol);
+    }
+
+    /**
+     * Returns a {@link ChromeJ} instance whose WebSocket connections use the given options. Since
+     * prewarmed tabs are connected with the options they were opened with, this must be called
+     * before {@link #withPrewarmedTabs(int)}.
+     *
+     * @param webSocketOptions
+     *            The options for connections created by {@link #getBrowser()} and
+     *            {@link #newTab()}
+     * @return The {@link ChromeJ} instance
+     * @throws IllegalStateException
+     *             if this instance has prewarmed tabs
+     */
+    public ChromeJ withWebSocketOptions(WebSocketOptions webSocketOptions) {
+        if (prewarmedTabs != null)
+            throw new IllegalStateException("WebSocket options must be set before prewarming tabs");
+        return new ChromeJ(httpProtocol, webSocketOptions, null);
+    }
+
+    /**
+     * Returns a {@link ChromeJ} instance that keeps the given number of tabs open and connected in
+     * the background. {@link #newTab()} then hands out one of these tabs, and a replacement is
+     * opened in the background, so callers don't wait for the tab to be created or for the
+     * WebSocket handshake. Call {@link #closePrewarmedTabs()} to close the tabs that have not been
+     * handed out.
+     *
+     * @param count
+     *            The number of tabs to keep ready
+     * @return The {@link ChromeJ} instance
+     */
+    public ChromeJ withPrewarmedTabs(int count) {
+        return new ChromeJ(httpProtocol, webSocketOptions, new PrewarmedTabs(httpProtocol, webSocketOptions, count));
+    }
+
+    /**
+     * Closes the prewarmed tabs that have not been handed out by {@link #newTab()}. Subsequent calls
+     * to {@link #newTab()} fail.
+     */
+    public void closePrewarmedTabs() {
+        if (prewarmedTabs != null)
+            prewarmedTabs.close();
     }
 }
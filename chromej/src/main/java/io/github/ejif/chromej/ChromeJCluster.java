@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens tabs across several Chrome instances, giving each new tab to the least loaded browser. A
+ * browser's load is its number of open targets plus the commands in flight over its connections,
+ * scaled up by its recent command latency (see
+ * {@link ChromeJClusterOptions#getReferenceLatencyMillis()}). Targets are counted through
+ * {@link HttpProtocol#getTargets()}, which doubles as a periodic health check: browsers that fail it
+ * are skipped until they pass again. A browser can also be drained, so that it gets no new tabs
+ * while the tabs it has finish their work.
+ *
+ * <pre>
+ * try (ChromeJCluster cluster = new ChromeJCluster(urls, ChromeJClusterOptions.defaults())) {
+ *     try (ConnectedTarget target = cluster.newTab()) {
+ *         target.navigateAndWait(url, LoadCondition.load(), 30_000);
+ *     }
+ * }
+ * </pre>
+ */
+public final class ChromeJCluster implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChromeJCluster.class);
+
+    private final ChromeJClusterOptions options;
+    private final List<Member> members;
+    private final ScheduledExecutorService healthChecker;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a cluster of the Chrome instances at the given URLs. Every browser is checked once, in
+     * parallel, before this returns, and then periodically in the background.
+     *
+     * @param urls
+     *            The URLs of each browser's HTTP protocol, e.g. <code>http://chrome-1:9222</code>
+     * @param options
+     *            The options for this cluster
+     */
+    public ChromeJCluster(List<String> urls, ChromeJClusterOptions options) {
+        if (urls.isEmpty())
+            throw new IllegalArgumentException("A cluster needs at least one browser");
+        this.options = options;
+        List<Member> members = new ArrayList<>(urls.size());
+        for (String url : urls)
+            members.add(new Member(url, options));
+        this.members = Collections.unmodifiableList(members);
+        this.healthChecker = Executors.newScheduledThreadPool(
+            Math.min(members.size(), 4),
+            new DaemonThreadFactory("chromej-cluster"));
+        List<Future<?>> initialChecks = new ArrayList<>(members.size());
+        for (Member member : members)
+            initialChecks.add(healthChecker.submit(() -> checkHealth(member)));
+        try {
+            for (Future<?> check : initialChecks)
+                check.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Member member : members)
+            healthChecker.scheduleWithFixedDelay(
+                () -> checkHealth(member),
+                options.getHealthCheckIntervalMillis(),
+                options.getHealthCheckIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a new tab in the least loaded healthy browser that is not being drained, and connects to
+     * it. If that fails, the browser is taken out until its next successful health check and the
+     * next least loaded browser is tried.
+     *
+     * @return The {@link ConnectedTarget} instance
+     * @throws ConnectionException
+     *             if every browser failed and the last one failed to connect
+     * @throws IllegalStateException
+     *             if no browser is available, or the cluster is closed
+     */
+    public ConnectedTarget newTab() throws ConnectionException {
+        if (closed)
+            throw new IllegalStateException("Cluster has been closed");
+        Set<Member> tried = new HashSet<>();
+        Exception lastError = null;
+        Member member;
+        while ((member = choose(tried)) != null) {
+            tried.add(member);
+            try {
+                return member.chromeJ.newTab();
+            } catch (ConnectionException | RuntimeException e) {
+                log.warn("Failed to open a tab in " + member.url, e);
+                member.openTargets.decrementAndGet();
+                member.healthCheckFailures.set(options.getMaxHealthCheckFailures());
+                lastError = e;
+            }
+        }
+        if (lastError instanceof ConnectionException)
+            throw (ConnectionException) lastError;
+        if (lastError != null)
+            throw (RuntimeException) lastError;
+        throw new IllegalStateException("No healthy browser is available");
+    }
+
+    /**
+     * Picks the least loaded available browser that has not been tried yet, and counts the tab
+     * about to be opened in it right away, so concurrent callers spread out.
+     */
+    private synchronized Member choose(Set<Member> tried) {
+        Member best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (Member member : members) {
+            if (tried.contains(member) || !member.isAvailable())
+                continue;
+            double load = member.getLoad();
+            if (load < bestLoad) {
+                best = member;
+                bestLoad = load;
+            }
+        }
+        if (best != null)
+            best.openTargets.incrementAndGet();
+        return best;
+    }
+
+    /**
+     * Stops giving new tabs to the browser at the given URL. Tabs already open in it are not
+     * affected; {@link #getMetrics()} shows how much work it still has in flight.
+     *
+     * @param url
+     *            The URL the browser was added to the cluster with
+     * @throws IllegalArgumentException
+     *             if the cluster has no browser with the given URL
+     */
+    public void drain(String url) {
+        getMember(url).draining = true;
+    }
+
+    /**
+     * Resumes giving new tabs to a browser that was drained.
+     *
+     * @param url
+     *            The URL the browser was added to the cluster with
+     * @throws IllegalArgumentException
+     *             if the cluster has no browser with the given URL
+     */
+    public void resume(String url) {
+        getMember(url).draining = false;
+    }
+
+    /**
+     * Gets the {@link ChromeJ} instance of a browser in the cluster, e.g. to open a browser-level
+     * connection to it.
+     *
+     * @param url
+     *            The URL the browser was added to the cluster with
+     * @return The {@link ChromeJ} instance
+     * @throws IllegalArgumentException
+     *             if the cluster has no browser with the given URL
+     */
+    public ChromeJ getChromeJ(String url) {
+        return getMember(url).chromeJ;
+    }
+
+    private Member getMember(String url) {
+        for (Member member : members)
+            if (member.url.equals(url))
+                return member;
+        throw new IllegalArgumentException("No browser with URL " + url);
+    }
+
+    /**
+     * Counts the browser's page targets, which also checks that it is up.
+     */
+    private void checkHealth(Member member) {
+        if (closed)
+            return;
+        try {
+            int pages = 0;
+            for (Target target : member.chromeJ.getHttpProtocol().getTargets())
+                if ("page".equals(target.getType()))
+                    pages++;
+            member.openTargets.set(pages);
+            if (member.healthCheckFailures.getAndSet(0) >= options.getMaxHealthCheckFailures())
+                log.info("{} is healthy again.", member.url);
+        } catch (RuntimeException e) {
+            if (member.healthCheckFailures.incrementAndGet() == options.getMaxHealthCheckFailures())
+                log.warn("Health check of " + member.url + " failed, no longer giving it tabs", e);
+            else
+                log.debug("Health check of " + member.url + " failed", e);
+        }
+    }
+
+    /**
+     * @return A snapshot of each browser's state, in the order the browsers were given
+     */
+    public List<ClusterMemberMetrics> getMetrics() {
+        List<ClusterMemberMetrics> metrics = new ArrayList<>(members.size());
+        for (Member member : members)
+            metrics.add(new ClusterMemberMetrics(
+                member.url,
+                member.isHealthy(),
+                member.draining,
+                member.openTargets.get(),
+                member.inFlightCommands.get(),
+                member.getLatencyMillis(),
+                member.getLoad()));
+        return metrics;
+    }
+
+    /**
+     * Stops checking the health of the browsers. Tabs opened by the cluster stay open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        healthChecker.shutdownNow();
+    }
+
+    /**
+     * A browser in the cluster. Its connections report their commands to it, which is how it
+     * measures the commands in flight and their latency.
+     */
+    private static final class Member implements MetricsListener {
+
+        /**
+         * The weight of each new latency sample in the moving average, as a power of two.
+         */
+        private static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+        final String url;
+        final ChromeJ chromeJ;
+        final AtomicInteger openTargets = new AtomicInteger();
+        final AtomicInteger inFlightCommands = new AtomicInteger();
+        final AtomicInteger healthCheckFailures = new AtomicInteger();
+        volatile boolean draining;
+
+        private final MetricsListener delegate;
+        private final long referenceLatencyNanos;
+        private final int maxHealthCheckFailures;
+        private final AtomicLong latencyNanos = new AtomicLong();
+
+        Member(String url, ChromeJClusterOptions options) {
+            WebSocketOptions webSocketOptions = options.getWebSocketOptions();
+            this.url = url;
+            this.delegate = webSocketOptions.getMetricsListener();
+            this.referenceLatencyNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(options.getReferenceLatencyMillis()));
+            this.maxHealthCheckFailures = options.getMaxHealthCheckFailures();
+            this.chromeJ = ChromeJ.create(url).withWebSocketOptions(webSocketOptions.toBuilder()
+                .metricsListener(this)
+                .build());
+        }
+
+        boolean isHealthy() {
+            return healthCheckFailures.get() < maxHealthCheckFailures;
+        }
+
+        boolean isAvailable() {
+            return !draining && isHealthy();
+        }
+
+        double getLatencyMillis() {
+            return latencyNanos.get() / 1e6;
+        }
+
+        double getLoad() {
+            double work = Math.max(0, openTargets.get()) + inFlightCommands.get() + 1;
+            return work * (1 + (double) latencyNanos.get() / referenceLatencyNanos);
+        }
+
+        private void recordLatency(long sampleNanos) {
+            latencyNanos.accumulateAndGet(sampleNanos,
+                (average, sample) -> average == 0 ? sample : average + ((sample - average) >> LATENCY_SMOOTHING_SHIFT));
+        }
+
+        @Override
+        public void commandStarted(String method) {
+            inFlightCommands.incrementAndGet();
+            delegate.commandStarted(method);
+        }
+
+        @Override
+        public void commandSent(String method, int length) {
+            delegate.commandSent(method, length);
+        }
+
+        @Override
+        public void commandSucceeded(String method, long latencyNanos) {
+            inFlightCommands.decrementAndGet();
+            recordLatency(latencyNanos);
+            delegate.commandSucceeded(method, latencyNanos);
+        }
+
+        @Override
+        public void commandFailed(String method, long latencyNanos, Throwable error) {
+            inFlightCommands.decrementAndGet();
+            delegate.commandFailed(method, latencyNanos, error);
+        }
+
+        @Override
+        public void commandTimedOut(String method, long latencyNanos) {
+            inFlightCommands.decrementAndGet();
+            // a browser too busy to respond in time is as slow as the timeout, at least
+            recordLatency(latencyNanos);
+            delegate.commandTimedOut(method, latencyNanos);
+        }
+
+        @Override
+        public void messageReceived(long length) {
+            delegate.messageReceived(length);
+        }
+
+        @Override
+        public void eventQueued(String method, int queueDepth) {
+            delegate.eventQueued(method, queueDepth);
+        }
+    }
+}
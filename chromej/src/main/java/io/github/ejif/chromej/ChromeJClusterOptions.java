@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Options for a {@link ChromeJCluster}. Use {@link #builder()} to override individual options;
+ * unset options keep their defaults.
+ */
+@Builder(toBuilder = true)
+@Data
+public final class ChromeJClusterOptions {
+
+    /**
+     * How often each browser's targets are fetched, which both checks that the browser is up and
+     * corrects the cluster's count of its open targets.
+     */
+    @Builder.Default
+    private final long healthCheckIntervalMillis = 5_000;
+
+    /**
+     * The number of health checks in a row that must fail before a browser is no longer given new
+     * tabs. A browser that fails to open a tab is taken out at once. Either way, it is given tabs
+     * again after its next successful health check.
+     */
+    @Builder.Default
+    private final int maxHealthCheckFailures = 2;
+
+    /**
+     * The command latency at which a browser counts as twice as loaded as one with the same number
+     * of targets and commands in flight that responds instantly.
+     */
+    @Builder.Default
+    private final long referenceLatencyMillis = 100;
+
+    /**
+     * The options used for each tab's WebSocket connection. The cluster wraps their metrics
+     * listener to measure each browser's load, and still passes every measurement on to it.
+     */
+    @Builder.Default
+    private final WebSocketOptions webSocketOptions = WebSocketOptions.defaults();
+
+    /**
+     * @return The default options
+     */
+    public static ChromeJClusterOptions defaults() {
+        return builder().build();
+    }
+}
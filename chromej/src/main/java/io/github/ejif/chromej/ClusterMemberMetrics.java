@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import lombok.Data;
+
+/**
+ * A snapshot of the state of one browser in a {@link ChromeJCluster}, returned by
+ * {@link ChromeJCluster#getMetrics()}.
+ */
+@Data
+public final class ClusterMemberMetrics {
+
+    /**
+     * The URL of the browser's HTTP protocol
+     */
+    private final String url;
+
+    /**
+     * Whether the browser passed its last health check
+     */
+    private final boolean healthy;
+
+    /**
+     * Whether the browser is being drained, i.e. is not given new tabs
+     */
+    private final boolean draining;
+
+    /**
+     * The number of page targets open in the browser, as of the last health check plus the tabs
+     * opened since
+     */
+    private final int openTargets;
+
+    /**
+     * The number of commands awaiting a response over connections to the browser
+     */
+    private final int inFlightCommands;
+
+    /**
+     * A moving average of the browser's recent command latency
+     */
+    private final double latencyMillis;
+
+    /**
+     * The load that tabs are scheduled by; the browser with the lowest load gets the next tab
+     */
+    private final double load;
+}
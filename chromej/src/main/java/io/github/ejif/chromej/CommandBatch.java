@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import io.github.ejif.chromej.protocol.AsyncCommandExecutor;
+import io.github.ejif.chromej.protocol.AsyncWsProtocol;
+import io.github.ejif.chromej.protocol.AsyncWsProtocolImpl;
+
+/**
+ * A set of independent commands that are sent to Chrome together. Commands added to a batch are
+ * not sent until {@link #execute()} or {@link #executeAsync()} is called; the requests are then
+ * written back to back, so the whole batch takes one round trip instead of one per command. A
+ * batch larger than {@link WebSocketOptions#getMaxInFlightCommands()} is sent in waves: the commands
+ * beyond the limit are queued and sent as the responses to earlier ones arrive.
+ *
+ * <pre>
+ * CommandBatch batch = target.batch();
+ * CompletionStage&lt;EvaluateResponse&gt; title = batch.getProtocol().getRuntime().evaluate(...);
+ * CompletionStage&lt;EvaluateResponse&gt; links = batch.getProtocol().getRuntime().evaluate(...);
+ * batch.execute();
+ * </pre>
+ */
+public final class CommandBatch {
+
+    private final ConnectedWebSocket webSocket;
+    private final CallOptions callOptions;
+    private final AsyncWsProtocol protocol;
+    private final List<BatchedCommand> commands = new ArrayList<>();
+
+    private boolean executed;
+
+    CommandBatch(ConnectedWebSocket webSocket, CallOptions callOptions) {
+        this.webSocket = webSocket;
+        this.callOptions = callOptions;
+        this.protocol = new AsyncWsProtocolImpl(new Recorder());
+    }
+
+    /**
+     * Gets an {@link AsyncWsProtocol} whose methods add a command to this batch. The returned stages
+     * complete once the batch has been executed and Chrome has responded to the command.
+     *
+     * @return The {@link AsyncWsProtocol} instance
+     */
+    public AsyncWsProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Adds a command to this batch.
+     *
+     * @param method
+     *            The fully qualified command name, e.g. <code>Runtime.evaluate</code>
+     * @param params
+     *            The request object, or null if the command takes no parameters
+     * @param resultType
+     *            The class to decode the result into
+     * @return A future completed with the command's result once the batch has been executed
+     */
+    public synchronized <T> CompletableFuture<T> add(String method, Object params, Class<T> resultType) {
+        if (executed)
+            throw new IllegalStateException("Batch has already been executed");
+        CompletableFuture<T> future = new CompletableFuture<>();
+        commands.add(new BatchedCommand(method, params, resultType, future));
+        return future;
+    }
+
+    /**
+     * Sends every command in this batch without waiting for the responses. The timeout of each
+     * command, and any deadline, is measured from this call.
+     *
+     * @return A future completed with the results of the commands, in the order they were added,
+     *         or exceptionally with the first failure
+     */
+    public CompletableFuture<List<Object>> executeAsync() {
+        List<BatchedCommand> toSend;
+        synchronized (this) {
+            if (executed)
+                throw new IllegalStateException("Batch has already been executed");
+            executed = true;
+            toSend = new ArrayList<>(commands);
+        }
+
+        List<CompletableFuture<Object>> results = webSocket.sendBatch(toSend, callOptions);
+        for (int i = 0; i < toSend.size(); i++)
+            toSend.get(i).forward(results.get(i));
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> {
+                List<Object> values = new ArrayList<>(results.size());
+                for (CompletableFuture<Object> result : results)
+                    values.add(result.join());
+                return values;
+            });
+    }
+
+    /**
+     * Sends every command in this batch and waits for all of the responses.
+     *
+     * @return The results of the commands, in the order they were added
+     * @throws RuntimeException
+     *             if any command fails
+     */
+    public List<Object> execute() {
+        try {
+            return executeAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the commands of the generated protocol implementation to this batch. A batch only
+     * completes its commands once it is executed, so it only backs the asynchronous protocol.
+     */
+    private final class Recorder implements AsyncCommandExecutor {
+
+        @Override
+        public <T> CompletionStage<T> executeAsync(String method, Object params, Class<T> resultType) {
+            return add(method, params, resultType);
+        }
+    }
+
+    static final class BatchedCommand {
+
+        final String method;
+        final Object params;
+        final Class<?> resultType;
+        private final CompletableFuture<?> future;
+
+        BatchedCommand(String method, Object params, Class<?> resultType, CompletableFuture<?> future) {
+            this.method = method;
+            this.params = params;
+            this.resultType = resultType;
+            this.future = future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void forward(CompletableFuture<Object> result) {
+            CompletableFuture<Object> target = (CompletableFuture<Object>) future;
+            result.whenComplete((value, t) -> {
+                if (t != null)
+                    target.completeExceptionally(t);
+                else
+                    target.complete(value);
+            });
+        }
+    }
+}
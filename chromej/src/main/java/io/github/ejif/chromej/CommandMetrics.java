@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * A {@link MetricsListener} that keeps counters and a latency histogram for each command name. One
+ * instance can be shared by any number of connections. This class requires
+ * <a href="https://github.com/HdrHistogram/HdrHistogram">HdrHistogram</a> on the classpath, which
+ * ChromeJ does not depend on by default.
+ *
+ * <pre>
+ * CommandMetrics metrics = new CommandMetrics();
+ * metrics.registerMBean("crawler");
+ * ChromeJ chromeJ = ChromeJ.create().withWebSocketOptions(WebSocketOptions.builder()
+ *     .metricsListener(metrics)
+ *     .build());
+ * ...
+ * System.out.println(metrics.getLatencyMicrosAtPercentile(99));
+ * </pre>
+ */
+public final class CommandMetrics implements MetricsListener, CommandMetricsMXBean {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final LongAdder commandsStarted = new LongAdder();
+    private final LongAdder commandsSucceeded = new LongAdder();
+    private final LongAdder commandsFailed = new LongAdder();
+    private final LongAdder commandsTimedOut = new LongAdder();
+    private final LongAdder commandsCompleted = new LongAdder();
+    private final LongAdder charactersSent = new LongAdder();
+    private final LongAdder charactersReceived = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final AtomicInteger eventQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxEventQueueDepth = new AtomicInteger();
+
+    private volatile ObjectName objectName;
+
+    @Override
+    public void commandStarted(String method) {
+        commandsStarted.increment();
+    }
+
+    @Override
+    public void commandSent(String method, int length) {
+        charactersSent.add(length);
+    }
+
+    @Override
+    public void commandSucceeded(String method, long latencyNanos) {
+        commandsSucceeded.increment();
+        record(method, latencyNanos);
+    }
+
+    @Override
+    public void commandFailed(String method, long latencyNanos, Throwable error) {
+        commandsFailed.increment();
+        record(method, latencyNanos).failed.increment();
+    }
+
+    @Override
+    public void commandTimedOut(String method, long latencyNanos) {
+        commandsTimedOut.increment();
+        record(method, latencyNanos).timedOut.increment();
+    }
+
+    @Override
+    public void messageReceived(long length) {
+        messagesReceived.increment();
+        charactersReceived.add(length);
+    }
+
+    @Override
+    public void eventQueued(String method, int queueDepth) {
+        eventQueueDepth.set(queueDepth);
+        maxEventQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    private MethodMetrics record(String method, long latencyNanos) {
+        commandsCompleted.increment();
+        MethodMetrics metrics = methods.computeIfAbsent(method, m -> new MethodMetrics());
+        metrics.latencyMicros.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        return metrics;
+    }
+
+    /**
+     * @return The names of the commands that have completed since the last reset
+     */
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(methods.keySet());
+    }
+
+    /**
+     * Gets a copy of the latency histogram of a command. Latencies of successful, failed and timed
+     * out commands are all recorded, in microseconds.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @return The histogram, or null if no such command has completed since the last reset
+     */
+    public Histogram getLatencyHistogram(String method) {
+        MethodMetrics metrics = methods.get(method);
+        return metrics == null ? null : metrics.latencyMicros.copy();
+    }
+
+    /**
+     * Gets the number of failed and timed out commands of each name.
+     *
+     * @return The error counts, keyed by command name
+     */
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        methods.forEach((method, metrics) -> counts.put(method, metrics.failed.sum() + metrics.timedOut.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMicrosAtPercentile(double percentile) {
+        Map<String, Long> latencies = new TreeMap<>();
+        methods.forEach((method, metrics) -> latencies.put(method, metrics.latencyMicros.getValueAtPercentile(percentile)));
+        return latencies;
+    }
+
+    @Override
+    public long getCommandsStarted() {
+        return commandsStarted.sum();
+    }
+
+    @Override
+    public long getCommandsSucceeded() {
+        return commandsSucceeded.sum();
+    }
+
+    @Override
+    public long getCommandsFailed() {
+        return commandsFailed.sum();
+    }
+
+    @Override
+    public long getCommandsTimedOut() {
+        return commandsTimedOut.sum();
+    }
+
+    @Override
+    public long getInFlightCommands() {
+        return commandsStarted.sum() - commandsCompleted.sum();
+    }
+
+    @Override
+    public long getCharactersSent() {
+        return charactersSent.sum();
+    }
+
+    @Override
+    public long getCharactersReceived() {
+        return charactersReceived.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public int getEventQueueDepth() {
+        return eventQueueDepth.get();
+    }
+
+    @Override
+    public int getMaxEventQueueDepth() {
+        return maxEventQueueDepth.get();
+    }
+
+    @Override
+    public void reset() {
+        // keep the difference between started and completed commands, which is the in-flight gauge
+        long inFlight = getInFlightCommands();
+        commandsStarted.reset();
+        commandsCompleted.reset();
+        commandsStarted.add(inFlight);
+        commandsSucceeded.reset();
+        commandsFailed.reset();
+        commandsTimedOut.reset();
+        charactersSent.reset();
+        charactersReceived.reset();
+        messagesReceived.reset();
+        maxEventQueueDepth.set(eventQueueDepth.get());
+        methods.clear();
+    }
+
+    /**
+     * Registers this object with the platform MBean server under the name
+     * <code>io.github.ejif.chromej:type=CommandMetrics,name=&lt;name&gt;</code>.
+     *
+     * @param name
+     *            The name that distinguishes this object from other instances
+     * @return The object name it was registered under
+     * @throws IllegalStateException
+     *             if registration fails, e.g. because the name is already taken
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("io.github.ejif.chromej:type=CommandMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Unregisters this object from the platform MBean server, if {@link #registerMBean(String)} was
+     * called.
+     */
+    public void unregisterMBean() {
+        ObjectName objectName = this.objectName;
+        if (objectName == null)
+            return;
+        this.objectName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class MethodMetrics {
+
+        final Histogram latencyMicros = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final LongAdder failed = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+    }
+}
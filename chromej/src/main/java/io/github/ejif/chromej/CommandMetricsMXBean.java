@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link CommandMetrics}.
+ */
+public interface CommandMetricsMXBean {
+
+    long getCommandsStarted();
+
+    long getCommandsSucceeded();
+
+    long getCommandsFailed();
+
+    long getCommandsTimedOut();
+
+    /**
+     * @return The number of commands that have started but not yet completed, including those
+     *         waiting for an in-flight permit
+     */
+    long getInFlightCommands();
+
+    long getCharactersSent();
+
+    long getCharactersReceived();
+
+    long getMessagesReceived();
+
+    /**
+     * @return The event queue depth most recently reported by any connection
+     */
+    int getEventQueueDepth();
+
+    /**
+     * @return The largest event queue depth reported since the last reset
+     */
+    int getMaxEventQueueDepth();
+
+    /**
+     * Gets a latency percentile for each command name.
+     *
+     * @param percentile
+     *            The percentile, between 0 and 100, e.g. 99
+     * @return The latency at that percentile, in microseconds, keyed by command name
+     */
+    Map<String, Long> getLatencyMicrosAtPercentile(double percentile);
+
+    /**
+     * Clears all counters and histograms except the in-flight gauge.
+     */
+    void reset();
+}
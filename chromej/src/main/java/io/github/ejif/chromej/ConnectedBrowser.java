@@ -2,11 +2,18 @@ package io.github.ejif.chromej;
 
 import java.util.List;
 
+import io.github.ejif.chromej.protocol.target.AttachToTargetRequest;
+import io.github.ejif.chromej.protocol.target.CreateTargetRequest;
 import io.github.ejif.chromej.protocol.target.TargetInfo;
 
+/**
+ * A WebSocket connection to the browser itself. Besides browser-wide commands, it can attach to
+ * targets in flat mode, so that many {@link ConnectedTarget}s share this single connection.
+ */
 public final class ConnectedBrowser extends ConnectedWebSocket {
 
-    private final Browser browser;
+    private final HttpProtocol httpProtocol;
+    private volatile Browser browser;
 
     /**
      * Creates a {@link ConnectedBrowser}, which establishes a WebSocket connection to the target at
@@ -22,6 +29,43 @@ public final class ConnectedBrowser extends ConnectedWebSocket {
      */
     public ConnectedBrowser(Browser browser, int timeoutMillis) throws ConnectionException {
         super(browser.getWebSocketDebuggerUrl(), timeoutMillis);
+        this.httpProtocol = null;
+        this.browser = browser;
+    }
+
+    /**
+     * Creates a {@link ConnectedBrowser}, which establishes a WebSocket connection to the browser at
+     * its URL.
+     *
+     * @param browser
+     *            The browser to connect to
+     * @param options
+     *            The options for the WebSocket connection
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    public ConnectedBrowser(Browser browser, WebSocketOptions options) throws ConnectionException {
+        this(browser, options, null);
+    }
+
+    /**
+     * Creates a {@link ConnectedBrowser}, which establishes a WebSocket connection to the browser at
+     * its URL. When reconnecting (see {@link WebSocketOptions#getReconnectPolicy()}), the URL is
+     * looked up again through the given HTTP protocol. Targets attached in flat mode are not
+     * reattached.
+     *
+     * @param browser
+     *            The browser to connect to
+     * @param options
+     *            The options for the WebSocket connection
+     * @param httpProtocol
+     *            The HTTP protocol of the browser, or null to always reconnect to the same URL
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    public ConnectedBrowser(Browser browser, WebSocketOptions options, HttpProtocol httpProtocol) throws ConnectionException {
+        super(browser.getWebSocketDebuggerUrl(), options);
+        this.httpProtocol = httpProtocol;
         this.browser = browser;
     }
 
@@ -29,6 +73,15 @@ public final class ConnectedBrowser extends ConnectedWebSocket {
         return browser;
     }
 
+    @Override
+    String resolveWebSocketDebuggerUrl() {
+        if (httpProtocol == null)
+            return super.resolveWebSocketDebuggerUrl();
+        Browser browser = httpProtocol.getBrowser();
+        this.browser = browser;
+        return browser.getWebSocketDebuggerUrl();
+    }
+
     /**
      * Return the targets currently available for this browser.
      *
@@ -37,4 +90,53 @@ public final class ConnectedBrowser extends ConnectedWebSocket {
     public List<TargetInfo> getTargets() {
         return getProtocol().getTarget().getTargets().getTargetInfos();
     }
+
+    /**
+     * Attaches to the target with the given ID in flat mode. The returned {@link ConnectedTarget}
+     * sends its commands over this browser's WebSocket connection, tagged with its session ID,
+     * instead of opening a connection of its own. Closing it detaches from the target.
+     *
+     * @param targetId
+     *            The ID of the target to attach to
+     * @return The {@link ConnectedTarget} instance
+     * @throws IllegalArgumentException
+     *             if there is no target with the given ID
+     */
+    public ConnectedTarget attachToTarget(String targetId) {
+        TargetInfo targetInfo = getTargets().stream()
+            .filter(info -> info.getTargetId().getValue().equals(targetId))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("No target with ID " + targetId));
+        String sessionId = getProtocol().getTarget()
+            .attachToTarget(AttachToTargetRequest.builder()
+                .targetId(targetInfo.getTargetId())
+                .flatten(true)
+                .build())
+            .getSessionId()
+            .getValue();
+        Target target = new Target(
+            "",
+            null,
+            targetId,
+            targetInfo.getTitle(),
+            targetInfo.getType(),
+            targetInfo.getUrl(),
+            null);
+        return new ConnectedTarget(this, target, sessionId);
+    }
+
+    /**
+     * Opens a new tab and attaches to it in flat mode, sharing this browser's WebSocket connection.
+     *
+     * @return The {@link ConnectedTarget} instance
+     */
+    public ConnectedTarget newTab() {
+        String targetId = getProtocol().getTarget()
+            .createTarget(CreateTargetRequest.builder()
+                .url("about:blank")
+                .build())
+            .getTargetId()
+            .getValue();
+        return attachToTarget(targetId);
+    }
 }
@@ -1,10 +1,32 @@
 package io.github.ejif.chromej;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import io.github.ejif.chromej.protocol.WsProtocol;
 import io.github.ejif.chromej.protocol.dom.GetDocumentRequest;
 import io.github.ejif.chromej.protocol.dom.GetOuterHTMLRequest;
 import io.github.ejif.chromej.protocol.dom.NodeId;
+import io.github.ejif.chromej.protocol.io.CloseRequest;
+import io.github.ejif.chromej.protocol.io.ReadRequest;
+import io.github.ejif.chromej.protocol.io.ReadResponse;
+import io.github.ejif.chromej.protocol.io.StreamHandle;
+import io.github.ejif.chromej.protocol.page.CaptureScreenshotRequest;
 import io.github.ejif.chromej.protocol.page.NavigateRequest;
+import io.github.ejif.chromej.protocol.page.NavigateResponse;
+import io.github.ejif.chromej.protocol.page.PrintToPDFRequest;
+import io.github.ejif.chromej.protocol.page.PrintToPDFRequestTransferMode;
+import io.github.ejif.chromej.protocol.page.SetLifecycleEventsEnabledRequest;
 import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
 import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
 import io.github.ejif.chromej.protocol.target.CloseTargetRequest;
@@ -12,7 +34,11 @@ import io.github.ejif.chromej.protocol.target.TargetID;
 
 public final class ConnectedTarget extends ConnectedWebSocket {
 
-    private final Target target;
+    private static final int CAPTURE_CHUNK_SIZE = 512 * 1024;
+    private static final int CAPTURE_BUFFER_SIZE = 64 * 1024;
+
+    private final HttpProtocol httpProtocol;
+    private volatile Target target;
 
     /**
      * Creates a {@link ConnectedTarget}, which establishes a WebSocket connection to the target at its URL
@@ -27,13 +53,88 @@ public final class ConnectedTarget extends ConnectedWebSocket {
      */
     public ConnectedTarget(Target target, int timeoutMillis) throws ConnectionException {
         super(target.getWebSocketDebuggerUrl(), timeoutMillis);
+        this.httpProtocol = null;
         this.target = target;
     }
 
+    /**
+     * Creates a {@link ConnectedTarget}, which establishes a WebSocket connection to the target at
+     * its URL.
+     *
+     * @param target
+     *            The target to connect to
+     * @param options
+     *            The options for the WebSocket connection
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    public ConnectedTarget(Target target, WebSocketOptions options) throws ConnectionException {
+        this(target, options, null);
+    }
+
+    /**
+     * Creates a {@link ConnectedTarget}, which establishes a WebSocket connection to the target at
+     * its URL. When reconnecting (see {@link WebSocketOptions#getReconnectPolicy()}), the target is
+     * looked up again through the given HTTP protocol; if it no longer exists, e.g. because Chrome
+     * restarted, a new tab is opened in its place.
+     *
+     * @param target
+     *            The target to connect to
+     * @param options
+     *            The options for the WebSocket connection
+     * @param httpProtocol
+     *            The HTTP protocol of the Chrome instance the target belongs to, or null to always
+     *            reconnect to the same URL
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    public ConnectedTarget(Target target, WebSocketOptions options, HttpProtocol httpProtocol) throws ConnectionException {
+        super(target.getWebSocketDebuggerUrl(), options);
+        this.httpProtocol = httpProtocol;
+        this.target = target;
+    }
+
+    /**
+     * Creates a {@link ConnectedTarget} for a flat-mode session on the browser's WebSocket
+     * connection.
+     *
+     * @param browser
+     *            The browser whose connection the session belongs to
+     * @param target
+     *            The target that was attached to
+     * @param sessionId
+     *            The session ID returned by <code>Target.attachToTarget</code>
+     */
+    ConnectedTarget(ConnectedBrowser browser, Target target, String sessionId) {
+        super(browser, sessionId);
+        this.httpProtocol = null;
+        this.target = target;
+    }
+
+    /**
+     * @return The target, which changes if the original tab was gone when reconnecting
+     */
     public Target getTarget() {
         return target;
     }
 
+    @Override
+    String resolveWebSocketDebuggerUrl() {
+        Target target = this.target;
+        if (httpProtocol == null || target == null)
+            return super.resolveWebSocketDebuggerUrl();
+        for (Target candidate : httpProtocol.getTargets()) {
+            if (candidate.getId().equals(target.getId())) {
+                this.target = candidate;
+                return candidate.getWebSocketDebuggerUrl();
+            }
+        }
+        // the tab's state is lost anyway, so carry on in a new one
+        Target replacement = httpProtocol.newTab();
+        this.target = replacement;
+        return replacement.getWebSocketDebuggerUrl();
+    }
+
     /**
      * Navigates to the given URL. Does not wait for the page to load.
      *
@@ -47,6 +148,58 @@ public final class ConnectedTarget extends ConnectedWebSocket {
                 .build());
     }
 
+    /**
+     * Navigates to the given URL and waits until the page satisfies the given condition, e.g.
+     * {@link LoadCondition#load()}. Unlike {@link #wait(int)}, this returns as soon as the condition
+     * is met.
+     *
+     * @param url
+     *            The URL to navigate to
+     * @param condition
+     *            The condition to wait for
+     * @param timeoutMillis
+     *            The maximum time to wait for the navigation and the condition
+     * @throws RuntimeException
+     *             if the navigation fails or the condition is not satisfied in time
+     */
+    public void navigateAndWait(String url, LoadCondition condition, long timeoutMillis) {
+        Deadline deadline = Deadline.after(timeoutMillis);
+        CallOptions callOptions = CallOptions.builder()
+            .deadline(deadline)
+            .build();
+        for (String domain : condition.getRequiredDomains())
+            enable(domain, callOptions);
+        if (condition.requiresLifecycleEvents())
+            getProtocol(callOptions).getPage().setLifecycleEventsEnabled(SetLifecycleEventsEnabledRequest.builder()
+                .enabled(true)
+                .build());
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        CompletableFuture<NavigateResponse> navigated = new CompletableFuture<>();
+        CompletableFuture<Void> satisfied = condition.await(this, navigated, subscriptions);
+        try {
+            NavigateResponse response = getProtocol(callOptions).getPage()
+                .navigate(NavigateRequest.builder()
+                    .url(url)
+                    .build());
+            if (response.getErrorText() != null)
+                throw new RuntimeException(String.format("Failed to navigate to %s (%s)", url, response.getErrorText()));
+            navigated.complete(response);
+            satisfied.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RuntimeException(String.format("Timeout when waiting for %s to satisfy %s", url, condition));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            satisfied.cancel(false);
+            for (Subscription subscription : subscriptions)
+                subscription.close();
+        }
+    }
+
     /**
      * Fetches the outer HTML of the current page.
      *
@@ -80,6 +233,97 @@ public final class ConnectedTarget extends ConnectedWebSocket {
         return result.getResult().getValue();
     }
 
+    /**
+     * Prints the current page to PDF and writes it to the given file, replacing its contents.
+     *
+     * @param path
+     *            The file to write the PDF to
+     * @throws IOException
+     *             if writing the file fails
+     */
+    public void printToPdf(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            printToPdf(PrintToPDFRequest.builder(), channel);
+        }
+    }
+
+    /**
+     * Prints the current page to PDF and writes it to the given channel. The PDF is transferred as a
+     * stream and read in fixed-size chunks, each decoded through a reusable direct buffer, so the
+     * memory used does not depend on the size of the PDF.
+     *
+     * @param request
+     *            A builder holding the print options; its transfer mode is overridden
+     * @param channel
+     *            The channel to write the PDF to. It is not closed.
+     * @throws IOException
+     *             if writing to the channel fails
+     */
+    public void printToPdf(PrintToPDFRequest.PrintToPDFRequestBuilder request, WritableByteChannel channel) throws IOException {
+        StreamHandle stream = getProtocol().getPage()
+            .printToPDF(request
+                .transferMode(PrintToPDFRequestTransferMode.RETURN_AS_STREAM)
+                .build())
+            .getStream();
+        Base64ChannelWriter writer = new Base64ChannelWriter(channel, CAPTURE_BUFFER_SIZE);
+        try {
+            ReadResponse chunk;
+            do {
+                chunk = getProtocol().getIO().read(ReadRequest.builder()
+                    .handle(stream)
+                    .size(CAPTURE_CHUNK_SIZE)
+                    .build());
+                if (chunk.isBase64Encoded())
+                    writer.write(chunk.getData());
+                else
+                    writer.writeRaw(chunk.getData().getBytes(StandardCharsets.UTF_8));
+            } while (!chunk.isEof());
+            writer.flush();
+        } finally {
+            getProtocol().getIO().close(CloseRequest.builder()
+                .handle(stream)
+                .build());
+        }
+    }
+
+    /**
+     * Captures a PNG screenshot of the current page and writes it to the given file, replacing its
+     * contents.
+     *
+     * @param path
+     *            The file to write the screenshot to
+     * @throws IOException
+     *             if writing the file fails
+     */
+    public void captureScreenshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            captureScreenshot(CaptureScreenshotRequest.builder().build(), channel);
+        }
+    }
+
+    /**
+     * Captures a screenshot of the current page and writes it to the given channel. Chrome cannot
+     * stream screenshots, so the image arrives as one base64 string, but it is decoded through a
+     * reusable direct buffer instead of into a byte array the size of the image.
+     *
+     * @param request
+     *            The screenshot options
+     * @param channel
+     *            The channel to write the image to. It is not closed.
+     * @throws IOException
+     *             if writing to the channel fails
+     */
+    public void captureScreenshot(CaptureScreenshotRequest request, WritableByteChannel channel) throws IOException {
+        String data = getProtocol().getPage()
+            .captureScreenshot(request)
+            .getData();
+        Base64ChannelWriter writer = new Base64ChannelWriter(channel, CAPTURE_BUFFER_SIZE);
+        writer.write(data);
+        writer.flush();
+    }
+
     /**
      * Waits for a given amount of time. Useful for waiting for pages to load, etc.
      *
@@ -95,9 +339,19 @@ public final class ConnectedTarget extends ConnectedWebSocket {
     }
 
     /**
-     * Closes the tab represented by this target.
+     * Enables notifications for the given domain, e.g. <code>Page</code>. Enabling a domain that is
+     * already enabled has no effect.
+     */
+    private void enable(String domain, CallOptions callOptions) {
+        executeAsync(domain + ".enable", null, Void.class, callOptions).join();
+    }
+
+    /**
+     * Closes the tab represented by this target. The connection to the tab closes as a result, and
+     * is not reconnected.
      */
     public void closeTab() {
+        stopReconnecting();
         getProtocol().getTarget().closeTarget(CloseTargetRequest.builder()
             .targetId(TargetID.of(target.getId()))
             .build());
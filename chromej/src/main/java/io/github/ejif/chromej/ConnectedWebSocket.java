@@ -5,53 +5,66 @@
 package io.github.ejif.chromej;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
-import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import javax.websocket.ClientEndpoint;
-import javax.websocket.DeploymentException;
-import javax.websocket.OnError;
-import javax.websocket.OnMessage;
-import javax.websocket.OnOpen;
-import javax.websocket.Session;
-
-import org.glassfish.tyrus.client.ClientManager;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
+import io.github.ejif.chromej.protocol.AsyncCommandExecutor;
+import io.github.ejif.chromej.protocol.AsyncWsProtocol;
+import io.github.ejif.chromej.protocol.AsyncWsProtocolImpl;
+import io.github.ejif.chromej.protocol.CommandExecutor;
+import io.github.ejif.chromej.protocol.EventType;
 import io.github.ejif.chromej.protocol.WsProtocol;
+import io.github.ejif.chromej.protocol.WsProtocolImpl;
+import io.github.ejif.chromej.protocol.target.DetachFromTargetRequest;
+import io.github.ejif.chromej.protocol.target.SessionID;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
 /**
  * Represents a target that has a WebSocket connection established with ChromeJ. Use
- * {@link #getProtocol()} to execute commands through the WebSocket connection.
+ * {@link #getProtocol()} to execute commands through the WebSocket connection, or
+ * {@link #getAsyncProtocol()} to execute commands without blocking the calling thread. Use
+ * {@link #on(EventType, Consumer)} to listen for events sent by Chrome.
+ * <p>
+ * A {@link ConnectedWebSocket} either owns its WebSocket connection, or is a flat-mode session that
+ * shares the connection of a {@link ConnectedBrowser} (see
+ * {@link ConnectedBrowser#attachToTarget(String)}).
  */
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public abstract class ConnectedWebSocket implements AutoCloseable {
 
-    public static int DEFAULT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
 
     private static final Logger log = LoggerFactory.getLogger(ConnectedWebSocket.class);
+    private static final ObjectMapper mapper = WebSocketConnection.mapper;
 
-    private static final AtomicInteger commandId = new AtomicInteger();
-    private static final ObjectMapper mapper = new ObjectMapper();
+    static final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("chromej-timeouts"));
 
-    private final long timeoutMillis;
+    private final String webSocketDebuggerUrl;
+    private final WebSocketOptions options;
+    private final ConnectedWebSocket parent;
+    private final String sessionId;
     private final WsProtocol protocol;
-    private final Map<Integer, Result> resultsByCommandId = new ConcurrentHashMap<>();
-    private final CountDownLatch initializationLatch = new CountDownLatch(1);
-
-    private Session session;
+    private final AsyncWsProtocol asyncProtocol;
+    private final Map<String, List<Listener<?>>> listenersByMethod = new ConcurrentHashMap<>();
+    private final SerialExecutor eventExecutor;
+    private final WebSocketConnection connection;
 
     /**
      * Establishes a WebSocket connection to the given URL.
@@ -64,20 +77,91 @@ public abstract class ConnectedWebSocket implements AutoCloseable {
      *             if an error occurred when establishing a connection
      */
     public ConnectedWebSocket(String webSocketDebuggerUrl, long timeoutMillis) throws ConnectionException {
-        this.timeoutMillis = timeoutMillis;
-        this.protocol = createProxy(WsProtocol.class, (proxy, method, args) -> {
-            return createDomainProxy(method.getReturnType());
-        });
+        this(webSocketDebuggerUrl, WebSocketOptions.builder()
+            .timeoutMillis(timeoutMillis)
+            .build());
+    }
 
-        log.debug("Connecting to {}...", webSocketDebuggerUrl);
-        try {
-            ClientManager.createClient()
-                .connectToServer(new Endpoint(), URI.create(webSocketDebuggerUrl));
-            initializationLatch.await();
-        } catch (DeploymentException | InterruptedException | IOException e) {
-            throw new ConnectionException(e);
-        }
-        log.debug("Connected to {}.", webSocketDebuggerUrl);
+    /**
+     * Establishes a WebSocket connection to the given URL.
+     *
+     * @param webSocketDebuggerUrl
+     *            The URL to connect to
+     * @param options
+     *            The options for this connection
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    public ConnectedWebSocket(String webSocketDebuggerUrl, WebSocketOptions options) throws ConnectionException {
+        this.webSocketDebuggerUrl = webSocketDebuggerUrl;
+        this.options = options;
+        this.parent = null;
+        this.sessionId = null;
+        this.eventExecutor = new SerialExecutor(options.getEventExecutor());
+        Executor executor = new Executor(CallOptions.defaults());
+        this.protocol = new WsProtocolImpl(executor);
+        this.asyncProtocol = new AsyncWsProtocolImpl(executor);
+        this.connection = new WebSocketConnection(webSocketDebuggerUrl, options, this);
+    }
+
+    /**
+     * Creates a flat-mode session that shares the WebSocket connection of the given parent. Commands
+     * and events are routed by the given session ID.
+     *
+     * @param parent
+     *            The {@link ConnectedWebSocket} whose connection to share
+     * @param sessionId
+     *            The session ID returned by <code>Target.attachToTarget</code>
+     */
+    ConnectedWebSocket(ConnectedWebSocket parent, String sessionId) {
+        this.webSocketDebuggerUrl = null;
+        this.options = parent.options;
+        this.parent = parent;
+        this.sessionId = sessionId;
+        this.eventExecutor = new SerialExecutor(options.getEventExecutor());
+        Executor executor = new Executor(CallOptions.defaults());
+        this.protocol = new WsProtocolImpl(executor);
+        this.asyncProtocol = new AsyncWsProtocolImpl(executor);
+        this.connection = parent.connection;
+        connection.register(sessionId, this);
+    }
+
+    /**
+     * @return Whether the underlying WebSocket connection is open and, for a flat-mode session,
+     *         whether the session is still attached. A connection that is reconnecting (see
+     *         {@link WebSocketOptions#getReconnectPolicy()}) is not open, and sessions attached
+     *         over it stay detached after it reconnects.
+     */
+    public final boolean isOpen() {
+        return connection.isOpen() && (parent == null || connection.isAttached(sessionId));
+    }
+
+    /**
+     * Gets the URL to connect to when reconnecting. Subclasses that know where the URL came from
+     * look it up again, since it may have changed, e.g. if Chrome restarted.
+     *
+     * @return The URL this object was created with
+     */
+    String resolveWebSocketDebuggerUrl() {
+        return webSocketDebuggerUrl;
+    }
+
+    /**
+     * Leaves the connection closed the next time it closes, e.g. because the target is about to
+     * be closed.
+     */
+    final void stopReconnecting() {
+        if (parent == null)
+            connection.stopReconnecting();
+    }
+
+    /**
+     * Gets the ID of the flat-mode session that this object sends commands to.
+     *
+     * @return The session ID, or null if this object owns its WebSocket connection
+     */
+    public final String getSessionId() {
+        return sessionId;
     }
 
     /**
@@ -89,97 +173,225 @@ public abstract class ConnectedWebSocket implements AutoCloseable {
         return protocol;
     }
 
-    private <T> T createDomainProxy(Class<T> domain) {
-        return createProxy(domain, (proxy, method, args) -> {
-            Object response = send(
-                domain.getSimpleName() + '.' + method.getName(),
-                args == null ? null : args[0]);
-            return mapper.convertValue(response, method.getReturnType());
-        });
+    /**
+     * Gets a {@link WsProtocol} instance whose commands use the given options instead of the
+     * connection's defaults, e.g. a longer timeout for <code>Page.printToPDF</code>.
+     *
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for each command
+     * @return The {@link WsProtocol} instance
+     */
+    public final WsProtocol getProtocol(CallOptions callOptions) {
+        return new WsProtocolImpl(new Executor(callOptions));
     }
 
-    private static <T> T createProxy(Class<T> interface_, InvocationHandler h) {
-        return interface_.cast(Proxy.newProxyInstance(interface_.getClassLoader(), new Class[] { interface_ }, h));
+    /**
+     * Gets the {@link AsyncWsProtocol} instance to execute generic commands without blocking. Each
+     * method returns a {@link java.util.concurrent.CompletionStage} that is completed when Chrome
+     * responds.
+     *
+     * @return The {@link AsyncWsProtocol} instance
+     */
+    public final AsyncWsProtocol getAsyncProtocol() {
+        return asyncProtocol;
     }
 
-    private Object send(String method, Object params) throws Throwable {
-        Result result = new Result();
-        int id = commandId.getAndIncrement();
-        resultsByCommandId.put(id, result);
+    /**
+     * Gets an {@link AsyncWsProtocol} instance whose commands use the given options instead of the
+     * connection's defaults.
+     *
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for each command
+     * @return The {@link AsyncWsProtocol} instance
+     */
+    public final AsyncWsProtocol getAsyncProtocol(CallOptions callOptions) {
+        return new AsyncWsProtocolImpl(new Executor(callOptions));
+    }
 
-        log.debug("Sending '{}' command to Chrome (ID {})...", method, id);
-        log.trace("Params: {}", params);
-        session.getBasicRemote().sendText(mapper.writeValueAsString(new Request(id, method, params)));
-        if (!result.latch.await(timeoutMillis, TimeUnit.MILLISECONDS))
-            throw new RuntimeException(String.format("Timeout when running %s (ID %s)", method, id));
+    /**
+     * Executes a command without blocking the calling thread. The returned future is completed by
+     * the WebSocket read thread when Chrome responds, or exceptionally if Chrome returns an error,
+     * does not respond within the timeout, or the connection closes.
+     * <p>
+     * If the maximum number of in-flight commands has been reached, the command is queued and sent
+     * once an earlier command completes; this method still returns right away. Time spent queued
+     * counts towards the command timeout.
+     *
+     * @param method
+     *            The fully qualified command name, e.g. <code>Runtime.evaluate</code>
+     * @param params
+     *            The request object, or null if the command takes no parameters
+     * @param resultType
+     *            The class to decode the result into
+     * @return A future holding the decoded result
+     */
+    public final <T> CompletableFuture<T> executeAsync(String method, Object params, Class<T> resultType) {
+        return executeAsync(method, params, resultType, CallOptions.defaults());
+    }
 
-        log.debug("Received response for command with ID {}.", id);
-        if (result.error != null)
-            throw new RuntimeException(String.format("%s (%s)", result.error.message, result.error.data));
-        return result.result;
+    /**
+     * Executes a command without blocking the calling thread, using the given options instead of
+     * the connection's defaults. Cancelling the returned future, or the options' cancellation
+     * token, stops waiting for the response and frees the command's in-flight slot.
+     *
+     * @param method
+     *            The fully qualified command name, e.g. <code>Runtime.evaluate</code>
+     * @param params
+     *            The request object, or null if the command takes no parameters
+     * @param resultType
+     *            The class to decode the result into
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for the command
+     * @return A future holding the decoded result
+     */
+    public final <T> CompletableFuture<T> executeAsync(String method, Object params, Class<T> resultType, CallOptions callOptions) {
+        return connection.send(sessionId, method, params, resultType, callOptions);
     }
 
-    @Override
-    public void close() throws IOException {
-        log.debug("Closing websocket session.");
-        session.close();
+    /**
+     * Creates a batch of commands that are sent together, so that independent commands take a single
+     * round trip. See {@link CommandBatch}.
+     *
+     * @return A new, empty batch
+     */
+    public final CommandBatch batch() {
+        return batch(CallOptions.defaults());
     }
 
-    @ClientEndpoint
-    public final class Endpoint {
+    /**
+     * Creates a batch of commands that are sent together, using the given options for each command.
+     *
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for each command
+     * @return A new, empty batch
+     */
+    public final CommandBatch batch(CallOptions callOptions) {
+        return new CommandBatch(this, callOptions);
+    }
 
-        @OnOpen
-        public void onOpen(Session session) {
-            log.trace("Opened websocket.");
-            ConnectedWebSocket.this.session = session;
-            initializationLatch.countDown();
-        }
+    /**
+     * Sends the commands of a batch back to back.
+     */
+    List<CompletableFuture<Object>> sendBatch(List<CommandBatch.BatchedCommand> commands, CallOptions callOptions) {
+        return connection.sendBatch(sessionId, commands, callOptions);
+    }
 
-        @OnMessage
-        public void onMessage(String message) throws IOException {
-            log.trace("Received message: {}", message);
-            Response response = mapper.readValue(message, Response.class);
-            Result result = resultsByCommandId.get(response.id);
-            result.result = response.result;
-            result.error = response.error;
-            result.latch.countDown();
-        }
+    /**
+     * Registers a listener for an event, e.g. <code>LoadEventFiredEvent.TYPE</code>. Listeners are
+     * called on the executor configured by {@link WebSocketOptions#getEventExecutor()}, one event at
+     * a time and in the order Chrome sent them. Note that Chrome only sends most events after the
+     * corresponding domain has been enabled, e.g. with <code>Page.enable</code>.
+     *
+     * @param type
+     *            The type of event to listen for
+     * @param listener
+     *            The listener to call with each event
+     * @return A subscription which unregisters the listener when closed
+     */
+    public final <T> Subscription on(EventType<T> type, Consumer<? super T> listener) {
+        Listener<T> entry = new Listener<>(type, listener);
+        List<Listener<?>> listeners = listenersByMethod.computeIfAbsent(type.getMethod(), m -> new CopyOnWriteArrayList<>());
+        listeners.add(entry);
+        return () -> listeners.remove(entry);
+    }
 
-        @OnError
-        public void onError(Throwable t) throws InterruptedException {
-            log.warn("Error in Websocket", t);
+    /**
+     * Delivers an event received by the WebSocket connection to this object's listeners.
+     */
+    void dispatch(String method, TokenBuffer params) {
+        List<Listener<?>> listeners = listenersByMethod.get(method);
+        if (listeners == null || listeners.isEmpty()) {
+            log.trace("No listeners for event {}.", method);
+            return;
         }
+        eventExecutor.execute(() -> {
+            for (Listener<?> listener : listeners)
+                listener.accept(params);
+        });
+        MetricsListener metrics = options.getMetricsListener();
+        if (metrics != MetricsListener.NOOP)
+            metrics.eventQueued(method, eventExecutor.queued());
     }
 
-    @Data
-    private static final class Result {
+    /**
+     * Blocks until the given future completes, rethrowing the cause if it completed exceptionally.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
 
-        private final CountDownLatch latch = new CountDownLatch(1);
-        private Object result;
-        private Error error;
+    /**
+     * Closes the WebSocket connection, failing any commands still awaiting a response. For a
+     * flat-mode session, this detaches from the target instead and leaves the shared connection
+     * open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (parent == null) {
+            connection.close();
+            return;
+        }
+        log.debug("Detaching from session {}.", sessionId);
+        connection.unregister(sessionId);
+        try {
+            parent.getProtocol().getTarget().detachFromTarget(DetachFromTargetRequest.builder()
+                .sessionId(SessionID.of(sessionId))
+                .build());
+        } catch (RuntimeException e) {
+            // the target may already have been closed, which also ends the session
+            log.debug("Failed to detach from session " + sessionId, e);
+        }
     }
 
-    @Data
-    private static final class Request {
+    /**
+     * Executes the commands of the generated protocol implementations with the given options.
+     */
+    private final class Executor implements CommandExecutor, AsyncCommandExecutor {
 
-        private final int id;
-        private final String method;
-        private final Object params;
-    }
+        private final CallOptions callOptions;
 
-    @Data
-    private static final class Response {
+        Executor(CallOptions callOptions) {
+            this.callOptions = callOptions;
+        }
+
+        @Override
+        public <T> T execute(String method, Object params, Class<T> resultType) {
+            return join(executeAsync(method, params, resultType, callOptions));
+        }
 
-        private final int id;
-        private final Object result;
-        private final Error error;
+        @Override
+        public <T> CompletionStage<T> executeAsync(String method, Object params, Class<T> resultType) {
+            return ConnectedWebSocket.this.executeAsync(method, params, resultType, callOptions);
+        }
     }
 
     @Data
-    private static final class Error {
-
-        private final int code;
-        private final String message;
-        private final Object data;
+    private static final class Listener<T> {
+
+        private final EventType<T> type;
+        private final Consumer<? super T> consumer;
+
+        void accept(TokenBuffer params) {
+            try {
+                T event = params == null
+                        ? mapper.readValue("{}", type.getEventClass())
+                        : mapper.readValue(params.asParser(), type.getEventClass());
+                consumer.accept(event);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Error in listener for event " + type.getMethod(), e);
+            }
+        }
     }
 }
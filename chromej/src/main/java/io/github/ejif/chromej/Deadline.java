@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a sequence of commands must complete. Passing the same deadline to each
+ * command of a job (see {@link CallOptions#getDeadline()}) bounds the time the whole job takes:
+ * each command waits at most for the time remaining until the deadline, rather than for a full
+ * timeout of its own.
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline the given number of milliseconds from now.
+     *
+     * @param timeoutMillis
+     *            The time until the deadline
+     * @return The deadline
+     */
+    public static Deadline after(long timeoutMillis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * @return The number of milliseconds until this deadline, rounded up, or 0 if it has passed
+     */
+    public long remainingMillis() {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0)
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * @return Whether this deadline has passed
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline(remainingMillis=" + remainingMillis() + ")";
+    }
+}
@@ -6,6 +6,7 @@ package io.github.ejif.chromej;
 
 import java.util.List;
 
+import feign.Param;
 import feign.RequestLine;
 
 /**
@@ -21,4 +22,7 @@ public interface HttpProtocol {
 
     @RequestLine("GET /json/new")
     Target newTab();
+
+    @RequestLine("GET /json/close/{id}")
+    void closeTab(@Param("id") String id);
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.github.ejif.chromej.protocol.network.LoadingFailedEvent;
+import io.github.ejif.chromej.protocol.network.LoadingFinishedEvent;
+import io.github.ejif.chromej.protocol.network.RequestId;
+import io.github.ejif.chromej.protocol.network.RequestWillBeSentEvent;
+import io.github.ejif.chromej.protocol.page.LifecycleEventEvent;
+import io.github.ejif.chromej.protocol.page.NavigateResponse;
+import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
+
+/**
+ * A condition that {@link ConnectedTarget#navigateAndWait(String, LoadCondition, long)} waits for
+ * after navigating to a page. Conditions are driven by Page and Network events, so waiting finishes
+ * as soon as the page is ready rather than after a fixed delay.
+ */
+public abstract class LoadCondition {
+
+    private static final long JAVASCRIPT_POLL_MILLIS = 50;
+
+    private LoadCondition() {}
+
+    /**
+     * @return A condition satisfied when the load event of the document being navigated to fires
+     */
+    public static LoadCondition load() {
+        return new LifecycleCondition("load");
+    }
+
+    /**
+     * @return A condition satisfied when the DOMContentLoaded event of the document being navigated
+     *         to fires
+     */
+    public static LoadCondition domContentLoaded() {
+        return new LifecycleCondition("DOMContentLoaded");
+    }
+
+    /**
+     * Creates a condition satisfied when the network has been idle for some time after navigating.
+     *
+     * @param maxInFlightRequests
+     *            The number of requests that may still be in flight while the network is considered
+     *            idle
+     * @param idleMillis
+     *            How long the number of in-flight requests must stay at or below
+     *            <code>maxInFlightRequests</code>
+     * @return The condition
+     */
+    public static LoadCondition networkIdle(int maxInFlightRequests, long idleMillis) {
+        return new NetworkIdleCondition(maxInFlightRequests, idleMillis);
+    }
+
+    /**
+     * Creates a condition satisfied when the given Javascript expression evaluates to a truthy value
+     * in the new page. The expression is polled, once the new page's document has been committed,
+     * until it is satisfied.
+     *
+     * @param predicate
+     *            The expression to evaluate, e.g. <code>document.querySelector('#results')</code>
+     * @return The condition
+     */
+    public static LoadCondition javascript(String predicate) {
+        return new JavascriptCondition(predicate);
+    }
+
+    /**
+     * @return The domains that must be enabled for this condition's events to be sent
+     */
+    abstract List<String> getRequiredDomains();
+
+    /**
+     * @return Whether this condition needs <code>Page.lifecycleEvent</code> events to be sent
+     */
+    boolean requiresLifecycleEvents() {
+        return false;
+    }
+
+    /**
+     * Starts waiting for this condition. This is called before navigating, so that no events are
+     * missed.
+     *
+     * @param target
+     *            The target being navigated
+     * @param navigated
+     *            A future completed with Chrome's response once it has committed the navigation
+     * @param subscriptions
+     *            A list to add any event subscriptions to; they are closed once waiting finishes
+     * @return A future completed when the condition is satisfied. It is cancelled if waiting times
+     *         out.
+     */
+    abstract CompletableFuture<Void> await(ConnectedTarget target, CompletableFuture<NavigateResponse> navigated, List<Subscription> subscriptions);
+
+    /**
+     * Waits for a lifecycle event of the document that the navigation loads.
+     */
+    private static final class LifecycleCondition extends LoadCondition {
+
+        private final String name;
+
+        LifecycleCondition(String name) {
+            this.name = name;
+        }
+
+        @Override
+        List<String> getRequiredDomains() {
+            return Collections.singletonList("Page");
+        }
+
+        @Override
+        boolean requiresLifecycleEvents() {
+            return true;
+        }
+
+        @Override
+        CompletableFuture<Void> await(ConnectedTarget target, CompletableFuture<NavigateResponse> navigated, List<Subscription> subscriptions) {
+            return LifecycleEventWaiter.await(name, target, navigated, subscriptions);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Waits for a lifecycle event of the document that a navigation loads. The page's own load
+     * events carry no loader, so one fired by the previous document just before navigating would be
+     * indistinguishable; lifecycle events are matched to the navigation by frame and loader ID
+     * instead. Events may be delivered before the navigation's loader is known, so they are kept
+     * until it is; all access is synchronized.
+     */
+    private static final class LifecycleEventWaiter {
+
+        private final String name;
+        private final CompletableFuture<Void> fired = new CompletableFuture<>();
+        private final List<LifecycleEventEvent> early = new ArrayList<>();
+        private NavigateResponse navigation;
+
+        private LifecycleEventWaiter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts waiting for a lifecycle event of the navigation's document.
+         *
+         * @param name
+         *            The event name, e.g. <code>load</code>
+         * @return A future completed when the event fires for the navigation's document, or at once
+         *         after a same-document navigation (e.g. to a fragment), which loads no new document
+         */
+        static CompletableFuture<Void> await(String name, ConnectedTarget target, CompletableFuture<NavigateResponse> navigated,
+                List<Subscription> subscriptions) {
+            LifecycleEventWaiter waiter = new LifecycleEventWaiter(name);
+            subscriptions.add(target.on(LifecycleEventEvent.TYPE, waiter::received));
+            navigated.thenAccept(waiter::navigated);
+            return waiter.fired;
+        }
+
+        synchronized void received(LifecycleEventEvent event) {
+            if (!name.equals(event.getName()))
+                return;
+            if (navigation == null)
+                early.add(event);
+            else if (matches(event))
+                fired.complete(null);
+        }
+
+        synchronized void navigated(NavigateResponse response) {
+            navigation = response;
+            if (response.getLoaderId() == null)
+                fired.complete(null);
+            for (LifecycleEventEvent event : early)
+                if (matches(event))
+                    fired.complete(null);
+            early.clear();
+        }
+
+        private boolean matches(LifecycleEventEvent event) {
+            return event.getFrameId().equals(navigation.getFrameId())
+                && event.getLoaderId().equals(navigation.getLoaderId());
+        }
+    }
+
+    private static final class NetworkIdleCondition extends LoadCondition {
+
+        private final int maxInFlightRequests;
+        private final long idleMillis;
+
+        NetworkIdleCondition(int maxInFlightRequests, long idleMillis) {
+            this.maxInFlightRequests = maxInFlightRequests;
+            this.idleMillis = idleMillis;
+        }
+
+        @Override
+        List<String> getRequiredDomains() {
+            return Arrays.asList("Page", "Network");
+        }
+
+        @Override
+        CompletableFuture<Void> await(ConnectedTarget target, CompletableFuture<NavigateResponse> navigated, List<Subscription> subscriptions) {
+            CompletableFuture<Void> idle = new CompletableFuture<>();
+            State state = new State(idle);
+            subscriptions.add(target.on(RequestWillBeSentEvent.TYPE, event -> state.started(event.getRequestId())));
+            subscriptions.add(target.on(LoadingFinishedEvent.TYPE, event -> state.finished(event.getRequestId())));
+            subscriptions.add(target.on(LoadingFailedEvent.TYPE, event -> state.finished(event.getRequestId())));
+            navigated.thenRun(state::navigated);
+            return idle;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("network idle (%s requests for %s ms)", maxInFlightRequests, idleMillis);
+        }
+
+        /**
+         * Tracks in-flight requests. Events arrive on the event executor and idle checks run on the
+         * timeout scheduler, so all access is synchronized.
+         */
+        private final class State {
+
+            private final CompletableFuture<Void> idle;
+            private final Set<RequestId> inFlight = new HashSet<>();
+            private boolean navigated;
+            private long generation;
+
+            State(CompletableFuture<Void> idle) {
+                this.idle = idle;
+            }
+
+            synchronized void navigated() {
+                navigated = true;
+                scheduleCheck();
+            }
+
+            synchronized void started(RequestId requestId) {
+                inFlight.add(requestId);
+                generation++;
+                scheduleCheck();
+            }
+
+            synchronized void finished(RequestId requestId) {
+                if (inFlight.remove(requestId))
+                    scheduleCheck();
+            }
+
+            /**
+             * If few enough requests are in flight, checks again after the idle period; the network
+             * is idle if no request started or finished in the meantime.
+             */
+            private void scheduleCheck() {
+                if (!navigated || idle.isDone() || inFlight.size() > maxInFlightRequests)
+                    return;
+                long expected = ++generation;
+                ConnectedWebSocket.timeoutScheduler.schedule(() -> {
+                    synchronized (this) {
+                        if (generation == expected && inFlight.size() <= maxInFlightRequests)
+                            idle.complete(null);
+                    }
+                }, idleMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Polls a predicate in the document that the navigation loads. Polling only starts once Chrome
+     * has committed that document, signalled by its <code>init</code> lifecycle event, so the
+     * predicate is never evaluated in the previous page.
+     */
+    private static final class JavascriptCondition extends LoadCondition {
+
+        private final String predicate;
+
+        JavascriptCondition(String predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        List<String> getRequiredDomains() {
+            return Collections.singletonList("Page");
+        }
+
+        @Override
+        boolean requiresLifecycleEvents() {
+            return true;
+        }
+
+        @Override
+        CompletableFuture<Void> await(ConnectedTarget target, CompletableFuture<NavigateResponse> navigated, List<Subscription> subscriptions) {
+            CompletableFuture<Void> satisfied = new CompletableFuture<>();
+            LifecycleEventWaiter.await("init", target, navigated, subscriptions)
+                .thenRun(() -> poll(target, satisfied));
+            return satisfied;
+        }
+
+        private void poll(ConnectedTarget target, CompletableFuture<Void> satisfied) {
+            if (satisfied.isDone())
+                return;
+            target.getAsyncProtocol().getRuntime()
+                .evaluate(EvaluateRequest.builder()
+                    .expression("!!(" + predicate + ")")
+                    .returnByValue(true)
+                    .build())
+                .whenComplete((response, t) -> {
+                    // errors are expected while the new execution context is being created
+                    if (t == null && Boolean.TRUE.equals(response.getResult().getValue()))
+                        satisfied.complete(null);
+                    else
+                        ConnectedWebSocket.timeoutScheduler.schedule(
+                            () -> poll(target, satisfied), JAVASCRIPT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                });
+        }
+
+        @Override
+        public String toString() {
+            return "javascript predicate " + predicate;
+        }
+    }
+}
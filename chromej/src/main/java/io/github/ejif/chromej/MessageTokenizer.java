@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Tokenizes a message that is received in parts. Each part is fed to Jackson's non-blocking parser
+ * as it arrives and its tokens are copied into a {@link TokenBuffer}, so the parts are parsed while
+ * later ones are still being received and are never joined into one string. Not thread-safe: the
+ * parts of a message are fed one at a time, in order.
+ */
+final class MessageTokenizer {
+
+    private final ObjectMapper mapper;
+    private JsonParser parser;
+    private TokenBuffer tokens;
+    /**
+     * A high surrogate that ended the previous part, whose low surrogate starts the next one.
+     */
+    private char pendingHighSurrogate;
+    private long length;
+
+    MessageTokenizer(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return Whether part of a message has been fed since the last one completed
+     */
+    boolean isStarted() {
+        return parser != null;
+    }
+
+    /**
+     * @return The number of characters fed since the last message completed
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Feeds the next part of a message.
+     *
+     * @param part
+     *            The part
+     * @param last
+     *            Whether this is the last part of the message
+     * @return The tokens of the whole message if this was the last part, or null if more parts are
+     *         expected
+     * @throws IOException
+     *             if the message is not well-formed JSON, after which the tokenizer is reset
+     */
+    TokenBuffer feed(String part, boolean last) throws IOException {
+        try {
+            if (parser == null) {
+                parser = mapper.getFactory().createNonBlockingByteArrayParser();
+                tokens = new TokenBuffer(mapper, false);
+            }
+            length += part.length();
+            feed(part);
+            if (!last)
+                return null;
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+            copyTokens();
+            if (parser.getParsingContext().inRoot() && tokens.firstToken() != null)
+                return finish();
+            throw new JsonParseException(parser, "Unexpected end of message");
+        } catch (IOException | RuntimeException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    private void feed(String part) throws IOException {
+        int end = part.length();
+        String text = part;
+        if (pendingHighSurrogate != 0) {
+            text = pendingHighSurrogate + part;
+            pendingHighSurrogate = 0;
+            end++;
+        }
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            pendingHighSurrogate = text.charAt(end - 1);
+            text = text.substring(0, end - 1);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+        copyTokens();
+    }
+
+    private void copyTokens() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE)
+            tokens.copyCurrentEvent(parser);
+    }
+
+    private TokenBuffer finish() {
+        TokenBuffer message = tokens;
+        reset();
+        return message;
+    }
+
+    /**
+     * Discards the message fed so far.
+     */
+    void reset() {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // nothing is held open by a byte array parser
+            }
+        }
+        parser = null;
+        tokens = null;
+        pendingHighSurrogate = 0;
+        length = 0;
+    }
+}
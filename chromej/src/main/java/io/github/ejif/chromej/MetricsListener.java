@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+/**
+ * Receives measurements of the commands and events carried by a connection. Configure one with
+ * {@link WebSocketOptions#getMetricsListener()}; {@link CommandMetrics} is an implementation that
+ * records latency histograms and can be exposed over JMX.
+ * <p>
+ * Methods are called on the threads that send commands and read messages, so implementations must
+ * be thread-safe and fast. Every command that {@link #commandStarted(String)} is reported for is
+ * later reported to exactly one of {@link #commandSucceeded(String, long)},
+ * {@link #commandFailed(String, long, Throwable)} or {@link #commandTimedOut(String, long)}.
+ * Latencies are measured from the call to {@link #commandStarted(String)}, so they include any time
+ * spent waiting for an in-flight permit.
+ */
+public interface MetricsListener {
+
+    /**
+     * A listener that ignores all measurements. Connections using it skip taking timestamps
+     * entirely.
+     */
+    MetricsListener NOOP = new MetricsListener() {};
+
+    /**
+     * Called when a command is about to be sent.
+     *
+     * @param method
+     *            The fully qualified command name
+     */
+    default void commandStarted(String method) {}
+
+    /**
+     * Called when a command's request has been encoded and is being written to the connection.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param length
+     *            The length of the request message, in characters
+     */
+    default void commandSent(String method, int length) {}
+
+    /**
+     * Called when Chrome responds to a command with a result.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param latencyNanos
+     *            The time the command took
+     */
+    default void commandSucceeded(String method, long latencyNanos) {}
+
+    /**
+     * Called when a command fails, e.g. because Chrome returned an error, the command was cancelled
+     * or the connection closed.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param latencyNanos
+     *            The time until the command failed
+     * @param error
+     *            The cause of the failure
+     */
+    default void commandFailed(String method, long latencyNanos, Throwable error) {}
+
+    /**
+     * Called when a command times out, either waiting for a response or waiting for an in-flight
+     * permit.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param latencyNanos
+     *            The time until the command timed out
+     */
+    default void commandTimedOut(String method, long latencyNanos) {}
+
+    /**
+     * Called after each message is received from Chrome.
+     *
+     * @param length
+     *            The length of the message, in characters
+     */
+    default void messageReceived(long length) {}
+
+    /**
+     * Called when an event is queued for delivery to listeners.
+     *
+     * @param method
+     *            The event name, e.g. <code>Page.loadEventFired</code>
+     * @param queueDepth
+     *            The number of events waiting to be delivered on the same connection or session,
+     *            including this one
+     */
+    default void eventQueued(String method, int queueDepth) {}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded, lock-free queue for many producers and a single consumer. Adding an item is one
+ * atomic swap of the tail, so producers never retry or wait for each other; only the consumer
+ * touches the head.
+ * <p>
+ * Between a producer swapping the tail and linking its node, items added after it are not yet
+ * visible to the consumer; {@link #poll()} returns null in that window as if the queue were empty.
+ * Callers must therefore re-check the queue after the producer that is linking has signalled the
+ * consumer, as {@link WriteQueue} does.
+ */
+final class MpscQueue<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(
+        Node.class, Node.class, "next");
+
+    private final AtomicReference<Node<T>> tail;
+    private Node<T> head;
+
+    MpscQueue() {
+        Node<T> stub = new Node<>(null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Adds an item to the tail of the queue. May be called from any thread.
+     */
+    void offer(T item) {
+        Node<T> node = new Node<>(item);
+        Node<T> previous = tail.getAndSet(node);
+        NEXT.lazySet(previous, node);
+    }
+
+    /**
+     * Removes the item at the head of the queue. Must only be called by the consumer.
+     *
+     * @return The item, or null if the queue is empty
+     */
+    T poll() {
+        Node<T> next = head.next;
+        if (next == null)
+            return null;
+        T item = next.item;
+        next.item = null;
+        head = next;
+        return item;
+    }
+
+    /**
+     * May also be called by the previous consumer after handing over, in which case the answer may
+     * be stale but never misses an item that this thread saw linked.
+     *
+     * @return Whether the queue has no item that the consumer can see
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static final class Node<T> {
+
+        T item;
+        volatile Node<T> next;
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A command that has been sent to Chrome and is waiting for a response.
+ */
+final class PendingCommand {
+
+    final int id;
+    final String method;
+    final Class<?> resultType;
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+    /**
+     * The session the command is sent to, or null for the root session.
+     */
+    String sessionId;
+    /**
+     * The request object, which is released once the writer has encoded it.
+     */
+    Object params;
+    long startNanos;
+    volatile ScheduledFuture<?> timeout;
+
+    /**
+     * @param id
+     *            The command ID
+     * @param method
+     *            The fully qualified command name
+     * @param resultType
+     *            The class that the command's result is decoded into
+     */
+    PendingCommand(int id, String method, Class<?> resultType) {
+        this.id = id;
+        this.method = method;
+        this.resultType = resultType;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the commands that have been sent over a WebSocket connection but not yet answered, keyed
+ * by command ID.
+ * <p>
+ * The table is a lock-free open-addressing array whose capacity is at least twice the maximum
+ * number of in-flight commands. Command IDs are handed out sequentially, so a command almost always
+ * lands in its home slot (<code>id &amp; mask</code>) and lookups never box the ID.
+ * <p>
+ * Commands that would exceed the in-flight limit are not added right away: they wait in a queue,
+ * in the order they arrived, and are added (and handed to the admission callback) as earlier
+ * commands are removed. This provides backpressure without ever blocking the caller, which may well
+ * be the WebSocket read thread or a thread that must not block.
+ */
+final class PendingCommands {
+
+    private final int maxInFlight;
+    private final int mask;
+    private final AtomicReferenceArray<PendingCommand> slots;
+    private final Semaphore permits;
+    private final AtomicInteger maxProbe = new AtomicInteger();
+    private final Consumer<PendingCommand> admitted;
+
+    // guarded by itself; waitingCount lets the common case skip the lock
+    private final ArrayDeque<PendingCommand> waiting = new ArrayDeque<>();
+    private volatile int waitingCount;
+
+    /**
+     * @param maxInFlight
+     *            The maximum number of commands that may be pending at once
+     * @param admitted
+     *            Called with each command that had to wait once it has been added, on the thread
+     *            that freed its permit; must not block
+     */
+    PendingCommands(int maxInFlight, Consumer<PendingCommand> admitted) {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        int capacity = Integer.highestOneBit(maxInFlight) << 2;
+        this.maxInFlight = maxInFlight;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.permits = new Semaphore(maxInFlight);
+        this.admitted = admitted;
+    }
+
+    /**
+     * Adds a command to the table if an in-flight permit is free and no earlier command is waiting
+     * for one. Otherwise the command waits until one is, and is then passed to the admission
+     * callback. Never blocks.
+     *
+     * @param command
+     *            The command to add
+     * @return Whether the command was added right away
+     */
+    boolean add(PendingCommand command) {
+        if (waitingCount == 0 && permits.tryAcquire()) {
+            insert(command);
+            return true;
+        }
+        synchronized (waiting) {
+            waiting.addLast(command);
+            waitingCount++;
+        }
+        // a permit may have been released after the check above
+        admitWaiting();
+        return false;
+    }
+
+    /**
+     * Gives free permits to the commands that are waiting, in order. Waiting commands are only
+     * added while holding the lock, so {@link #removeWaiting(PendingCommand)} either finds a command
+     * still waiting or finds it in the table.
+     */
+    private void admitWaiting() {
+        while (waitingCount > 0) {
+            PendingCommand command;
+            synchronized (waiting) {
+                if (waiting.isEmpty() || !permits.tryAcquire())
+                    return;
+                command = waiting.pollFirst();
+                waitingCount--;
+                insert(command);
+            }
+            admitted.accept(command);
+        }
+    }
+
+    private void insert(PendingCommand command) {
+        // the permit guarantees that fewer than half of the slots are occupied, so this terminates
+        for (int probe = 0;; probe++) {
+            if (slots.compareAndSet((command.id + probe) & mask, null, command)) {
+                if (probe > maxProbe.get())
+                    maxProbe.accumulateAndGet(probe, Math::max);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops a command from waiting for an in-flight permit, e.g. because it timed out or was
+     * cancelled first.
+     *
+     * @param command
+     *            The command
+     * @return Whether the command was waiting; if not, it has either been added or was never added
+     */
+    boolean removeWaiting(PendingCommand command) {
+        if (waitingCount == 0)
+            return false;
+        synchronized (waiting) {
+            if (!waiting.remove(command))
+                return false;
+            waitingCount--;
+            return true;
+        }
+    }
+
+    /**
+     * Removes the command with the given ID and releases its in-flight permit.
+     *
+     * @param id
+     *            The command ID
+     * @return The removed command, or null if no command with that ID is pending (for example
+     *         because it already timed out)
+     */
+    PendingCommand remove(int id) {
+        int limit = maxProbe.get();
+        for (int probe = 0; probe <= limit; probe++) {
+            int slot = (id + probe) & mask;
+            PendingCommand command = slots.get(slot);
+            if (command != null && command.id == id) {
+                if (!slots.compareAndSet(slot, command, null))
+                    return null;
+                permits.release();
+                admitWaiting();
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id
+     *            The command ID
+     * @return Whether a command with the given ID is pending
+     */
+    boolean contains(int id) {
+        int limit = maxProbe.get();
+        for (int probe = 0; probe <= limit; probe++) {
+            PendingCommand command = slots.get((id + probe) & mask);
+            if (command != null && command.id == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every pending command, including those waiting for a permit, e.g. because the
+     * connection closed.
+     *
+     * @return The removed commands
+     */
+    List<PendingCommand> removeAll() {
+        List<PendingCommand> removed = new ArrayList<>();
+        synchronized (waiting) {
+            removed.addAll(waiting);
+            waiting.clear();
+            waitingCount = 0;
+        }
+        for (int slot = 0; slot < slots.length(); slot++) {
+            PendingCommand command = slots.getAndSet(slot, null);
+            if (command != null) {
+                permits.release();
+                removed.add(command);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return The number of commands currently pending, not counting those waiting for a permit
+     */
+    int size() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * @return The number of commands waiting for an in-flight permit
+     */
+    int waitingSize() {
+        return waitingCount;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of tabs that are opened and connected in the background, so that
+ * {@link ChromeJ#newTab()} can hand out a ready connection without waiting for the tab to be
+ * created and the WebSocket handshake to complete. Every tab that is taken is replaced.
+ */
+final class PrewarmedTabs {
+
+    private static final Logger log = LoggerFactory.getLogger(PrewarmedTabs.class);
+
+    private final HttpProtocol httpProtocol;
+    private final WebSocketOptions options;
+    private final BlockingQueue<ConnectedTarget> tabs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("chromej-prewarm"));
+
+    private volatile boolean closed;
+
+    PrewarmedTabs(HttpProtocol httpProtocol, WebSocketOptions options, int count) {
+        this.httpProtocol = httpProtocol;
+        this.options = options;
+        this.tabs = new LinkedBlockingQueue<>(count);
+        for (int i = 0; i < count; i++)
+            executor.execute(this::refill);
+    }
+
+    /**
+     * Takes a prewarmed tab, or opens a new one if none are ready.
+     */
+    ConnectedTarget take() throws ConnectionException {
+        if (closed)
+            throw new IllegalStateException("Prewarmed tabs have been closed");
+        ConnectedTarget tab;
+        while ((tab = tabs.poll()) != null) {
+            executor.execute(this::refill);
+            if (tab.isOpen())
+                return tab;
+            log.debug("Discarding prewarmed tab {}, whose connection was closed.", tab.getTarget().getId());
+        }
+        return new ConnectedTarget(httpProtocol.newTab(), options, httpProtocol);
+    }
+
+    private void refill() {
+        if (closed)
+            return;
+        try {
+            ConnectedTarget tab = new ConnectedTarget(httpProtocol.newTab(), options, httpProtocol);
+            if (!tabs.offer(tab) || (closed && tabs.remove(tab)))
+                closeQuietly(tab);
+        } catch (ConnectionException | RuntimeException e) {
+            log.warn("Failed to prewarm tab", e);
+        }
+    }
+
+    /**
+     * Closes every prewarmed tab that has not been taken.
+     */
+    void close() {
+        closed = true;
+        executor.shutdown();
+        ConnectedTarget tab;
+        while ((tab = tabs.poll()) != null)
+            closeQuietly(tab);
+    }
+
+    private static void closeQuietly(ConnectedTarget tab) {
+        try {
+            tab.closeTab();
+            tab.close();
+        } catch (Exception e) {
+            log.debug("Failed to close prewarmed tab", e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How a connection re-establishes itself after the WebSocket closes unexpectedly, e.g. because
+ * Chrome restarted or the network dropped. Use {@link #builder()} to override individual options;
+ * unset options keep their defaults. Connections don't reconnect unless
+ * {@link WebSocketOptions#getReconnectPolicy()} is set.
+ */
+@Builder(toBuilder = true)
+@Data
+public final class ReconnectPolicy {
+
+    private static final ReconnectPolicy DISABLED = builder()
+        .maxAttempts(0)
+        .build();
+
+    /**
+     * The number of attempts to reconnect after each disconnection before giving up and leaving
+     * the connection closed.
+     */
+    @Builder.Default
+    private final int maxAttempts = 10;
+
+    /**
+     * How long to wait before the first attempt.
+     */
+    @Builder.Default
+    private final long initialBackoffMillis = 50;
+
+    /**
+     * The longest wait between two attempts.
+     */
+    @Builder.Default
+    private final long maxBackoffMillis = 10_000;
+
+    /**
+     * The factor the wait grows by after each failed attempt.
+     */
+    @Builder.Default
+    private final double multiplier = 2;
+
+    /**
+     * @return A policy that never reconnects
+     */
+    public static ReconnectPolicy disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return The default policy, which retries with exponential backoff
+     */
+    public static ReconnectPolicy defaults() {
+        return builder().build();
+    }
+
+    /**
+     * @return Whether connections using this policy reconnect at all
+     */
+    public boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    /**
+     * Gets how long to wait before the given attempt. The wait is randomized between half and all
+     * of the exponential backoff, so that many connections dropped by the same restart don't all
+     * reconnect at the same instant.
+     *
+     * @param attempt
+     *            The attempt, starting at 1
+     * @return The wait, in milliseconds
+     */
+    public long getBackoffMillis(int attempt) {
+        double backoff = initialBackoffMillis * Math.pow(multiplier, attempt - 1);
+        long cappedBackoff = (long) Math.min(backoff, maxBackoffMillis);
+        return cappedBackoff / 2 + ThreadLocalRandom.current().nextLong(cappedBackoff / 2 + 1);
+    }
+}
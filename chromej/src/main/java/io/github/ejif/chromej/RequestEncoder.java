@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Encodes requests into a character buffer and generator that are reused from one request to the
+ * next. The <code>{"id":..,"method":..,"params":..,"sessionId":..}</code> envelope is written field
+ * by field with pre-encoded names, and the params by their serializer, so that encoding only
+ * allocates the final message string. Not thread-safe: each connection's writer owns one.
+ * <p>
+ * That string, and the frame Tyrus encodes from it, are still allocated once per request, and each
+ * request is sent on its own. Chrome reads every text frame as exactly one complete message and
+ * doesn't accept fragmented ones, so requests can't be joined into one frame or streamed from a
+ * reused buffer, and the javax.websocket API only takes text to send as a String or through a
+ * writer that fragments it.
+ */
+final class RequestEncoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * A buffer that grew past this size for a large request is dropped afterwards rather than
+     * retained for the life of the connection.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString METHOD = new SerializedString("method");
+    private static final SerializableString PARAMS = new SerializedString("params");
+    private static final SerializableString SESSION_ID = new SerializedString("sessionId");
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter paramsWriter;
+    private CharBuffer buffer = new CharBuffer(INITIAL_CAPACITY);
+    private JsonGenerator generator;
+
+    RequestEncoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+        // the generator is flushed once, after the whole envelope
+        this.paramsWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Encodes a request.
+     *
+     * @param id
+     *            The command ID
+     * @param method
+     *            The fully qualified command name
+     * @param params
+     *            The request object, or null if the command takes no parameters
+     * @param sessionId
+     *            The session to send the command to, or null for the root session
+     * @return The encoded request
+     */
+    String encode(int id, String method, Object params, String sessionId) throws IOException {
+        buffer.reset();
+        try {
+            JsonGenerator json = getGenerator();
+            json.writeStartObject();
+            json.writeFieldName(ID);
+            json.writeNumber(id);
+            json.writeFieldName(METHOD);
+            json.writeString(method);
+            if (params != null) {
+                json.writeFieldName(PARAMS);
+                paramsWriter.writeValue(json, params);
+            }
+            if (sessionId != null) {
+                json.writeFieldName(SESSION_ID);
+                json.writeString(sessionId);
+            }
+            json.writeEndObject();
+            json.flush();
+            return buffer.toString();
+        } catch (IOException | RuntimeException e) {
+            // the generator may be stuck in the middle of the request
+            generator = null;
+            throw e;
+        } finally {
+            if (buffer.chars.length > MAX_RETAINED_CAPACITY) {
+                buffer = new CharBuffer(INITIAL_CAPACITY);
+                generator = null;
+            }
+        }
+    }
+
+    private JsonGenerator getGenerator() throws IOException {
+        if (generator == null) {
+            generator = mapper.getFactory().createGenerator(buffer);
+            // requests are written one after another into the same generator without a separator
+            generator.setRootValueSeparator(null);
+        }
+        return generator;
+    }
+
+    /**
+     * An unsynchronized, resettable alternative to {@link java.io.CharArrayWriter}.
+     */
+    private static final class CharBuffer extends Writer {
+
+        char[] chars;
+        int length;
+
+        CharBuffer(int capacity) {
+            this.chars = new char[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(1);
+            chars[length++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] source, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(source, offset, chars, length, count);
+            length += count;
+        }
+
+        @Override
+        public void write(String source, int offset, int count) {
+            ensureCapacity(count);
+            source.getChars(offset, offset + count, chars, length);
+            length += count;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + count));
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks one at a time, in submission order, on an underlying (possibly multi-threaded)
+ * executor. Used to deliver events in order without tying up the WebSocket read thread.
+ */
+final class SerialExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * @return The number of tasks waiting to run
+     */
+    int queued() {
+        return queued.get();
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && running.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                queued.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Error running task", e);
+                }
+            }
+        } finally {
+            running.set(false);
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+/**
+ * A handle to an event listener registered with {@link ConnectedWebSocket#on}. Closing the
+ * subscription unregisters the listener.
+ */
+public interface Subscription extends AutoCloseable {
+
+    /**
+     * Unregisters the listener. Events that have already been queued for the listener may still be
+     * delivered.
+     */
+    @Override
+    void close();
+}
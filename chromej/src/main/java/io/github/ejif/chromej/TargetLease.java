@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+/**
+ * A tab leased from a {@link TargetPool}. Closing the lease resets the tab and returns it to the
+ * pool. If the tab has gone bad (for example, the page crashed), call {@link #invalidate()} before
+ * closing the lease so that the tab is closed and replaced instead.
+ */
+public final class TargetLease implements AutoCloseable {
+
+    private final TargetPool pool;
+    private final TargetPool.PooledTab tab;
+
+    private boolean invalid;
+    private boolean closed;
+
+    TargetLease(TargetPool pool, TargetPool.PooledTab tab) {
+        this.pool = pool;
+        this.tab = tab;
+    }
+
+    /**
+     * @return The leased tab. It must not be used after the lease is closed.
+     */
+    public ConnectedTarget getTarget() {
+        if (closed)
+            throw new IllegalStateException("Lease has been closed");
+        return tab.target;
+    }
+
+    /**
+     * Marks the tab as broken, so that it is closed instead of returned to the pool when the lease
+     * is closed.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * Returns the tab to the pool, or closes it if it was invalidated.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        pool.release(tab, invalid);
+    }
+}
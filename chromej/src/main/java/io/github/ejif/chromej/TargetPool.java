@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.ejif.chromej.protocol.storage.ClearDataForOriginRequest;
+
+/**
+ * A pool of connected tabs that are reused across jobs. Each call to {@link #acquire()} hands out a
+ * {@link TargetLease}; closing the lease resets the tab (navigating it to <code>about:blank</code>
+ * and clearing the storage of the page it was on) and returns it to the pool, so later jobs don't
+ * pay for creating a tab and connecting to it.
+ *
+ * <pre>
+ * try (TargetPool pool = new TargetPool(ChromeJ.create(), TargetPoolOptions.defaults())) {
+ *     try (TargetLease lease = pool.acquire()) {
+ *         lease.getTarget().navigateAndWait(url, LoadCondition.load(), 30_000);
+ *     }
+ * }
+ * </pre>
+ */
+public final class TargetPool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TargetPool.class);
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ChromeJ chromeJ;
+    private final TargetPoolOptions options;
+    private final BlockingDeque<PooledTab> idleTabs = new LinkedBlockingDeque<>();
+    private final Semaphore leasePermits;
+    /**
+     * A permit for each tab the pool may have open, leased or idle. One is taken before any tab is
+     * created, including the idle tabs opened in the background, and returned when the tab is closed.
+     */
+    private final Semaphore tabPermits;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("chromej-pool"));
+
+    private final AtomicInteger waitingCallers = new AtomicInteger();
+    private final AtomicLong totalLeases = new AtomicLong();
+    private final AtomicLong tabsCreated = new AtomicLong();
+    private final AtomicLong tabsEvicted = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of tabs in the Chrome instance that the given {@link ChromeJ} talks to. If
+     * <code>minIdleTabs</code> is set, that many tabs are opened in the background.
+     *
+     * @param chromeJ
+     *            The {@link ChromeJ} instance used to open tabs
+     * @param options
+     *            The options for this pool
+     */
+    public TargetPool(ChromeJ chromeJ, TargetPoolOptions options) {
+        this.chromeJ = chromeJ;
+        this.options = options;
+        this.leasePermits = new Semaphore(options.getMaxTabs(), true);
+        this.tabPermits = new Semaphore(options.getMaxTabs());
+        for (int i = 0; i < Math.min(options.getMinIdleTabs(), options.getMaxTabs()); i++)
+            executor.execute(this::openIdleTab);
+    }
+
+    private void openIdleTab() {
+        if (closed || !tabPermits.tryAcquire())
+            return;
+        PooledTab tab;
+        try {
+            tab = createTab();
+        } catch (ConnectionException | RuntimeException e) {
+            tabPermits.release();
+            log.warn("Failed to open idle tab", e);
+            return;
+        }
+        idleTabs.offer(tab);
+        // close() may have drained the idle tabs before this one was added
+        if (closed && idleTabs.remove(tab))
+            evict(tab, "the pool is closed");
+    }
+
+    /**
+     * Leases a tab, reusing an idle one if possible. If <code>maxTabs</code> tabs are already leased,
+     * this waits up to <code>acquireTimeoutMillis</code> for one to be returned.
+     *
+     * @return The lease, which must be closed to return the tab to the pool
+     * @throws ConnectionException
+     *             if a new tab had to be opened and connecting to it failed
+     * @throws IllegalStateException
+     *             if no tab became available in time, or the pool is closed
+     */
+    public TargetLease acquire() throws ConnectionException {
+        checkOpen();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getAcquireTimeoutMillis());
+        waitingCallers.incrementAndGet();
+        try {
+            if (!leasePermits.tryAcquire(options.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS))
+                throw new IllegalStateException(String.format(
+                    "Timeout when waiting for a tab: all %s tabs are leased", options.getMaxTabs()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            waitingCallers.decrementAndGet();
+        }
+
+        try {
+            PooledTab tab = takeTab(deadline);
+            tab.leases++;
+            totalLeases.incrementAndGet();
+            return new TargetLease(this, tab);
+        } catch (ConnectionException | RuntimeException e) {
+            leasePermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes an idle tab, or opens a new one if the pool has fewer than <code>maxTabs</code> tabs.
+     * Holding a lease permit, the caller only finds every tab permit taken while idle tabs are
+     * still being opened in the background, so it waits for one of those.
+     */
+    private PooledTab takeTab(long deadline) throws ConnectionException {
+        while (true) {
+            PooledTab tab = idleTabs.pollFirst();
+            if (tab == null && tabPermits.tryAcquire()) {
+                try {
+                    return createTab();
+                } catch (ConnectionException | RuntimeException e) {
+                    tabPermits.release();
+                    throw e;
+                }
+            }
+            if (tab == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new IllegalStateException(String.format(
+                        "Timeout when waiting for a tab: all %s tabs are open", options.getMaxTabs()));
+                try {
+                    // bounded, so a permit returned by a failed background open is noticed too
+                    tab = idleTabs.pollFirst(Math.min(remaining, IDLE_POLL_NANOS), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (tab != null) {
+                if (tab.target.isOpen())
+                    return tab;
+                evict(tab, "its connection was closed");
+            }
+        }
+    }
+
+    /**
+     * Called when a lease is closed. Resets the tab and returns it to the pool, or closes it if it is
+     * broken, failed to reset, or has reached its maximum number of leases.
+     */
+    void release(PooledTab tab, boolean invalid) {
+        try {
+            if (closed)
+                evict(tab, "the pool is closed");
+            else if (invalid)
+                evict(tab, "it was invalidated");
+            else if (tab.leases >= options.getMaxLeasesPerTab())
+                evict(tab, "it reached its maximum number of leases");
+            else if (!tab.target.isOpen())
+                evict(tab, "its connection was closed");
+            else if (reset(tab))
+                idleTabs.offerFirst(tab);
+        } finally {
+            leasePermits.release();
+        }
+    }
+
+    /**
+     * Clears the storage of the page the tab is on and navigates to about:blank.
+     *
+     * @return Whether the tab was reset; if not, it has been evicted
+     */
+    private boolean reset(PooledTab tab) {
+        try {
+            Object origin = tab.target.evaluate("location.origin");
+            if (origin instanceof String && ((String) origin).startsWith("http"))
+                tab.target.getProtocol().getStorage().clearDataForOrigin(ClearDataForOriginRequest.builder()
+                    .origin((String) origin)
+                    .storageTypes("all")
+                    .build());
+            tab.target.navigateAndWait("about:blank", LoadCondition.load(), options.getWebSocketOptions().getTimeoutMillis());
+            return true;
+        } catch (RuntimeException e) {
+            log.debug("Failed to reset tab", e);
+            evict(tab, "it failed to reset");
+            return false;
+        }
+    }
+
+    private PooledTab createTab() throws ConnectionException {
+        HttpProtocol httpProtocol = chromeJ.getHttpProtocol();
+        Target target = httpProtocol.newTab();
+        tabsCreated.incrementAndGet();
+        return new PooledTab(new ConnectedTarget(target, options.getWebSocketOptions(), httpProtocol));
+    }
+
+    private void evict(PooledTab tab, String reason) {
+        log.debug("Closing tab {} because {}.", tab.target.getTarget().getId(), reason);
+        tabsEvicted.incrementAndGet();
+        try {
+            // a tab whose connection was closed can still be closed over HTTP
+            if (tab.target.isOpen())
+                tab.target.closeTab();
+            else
+                chromeJ.getHttpProtocol().closeTab(tab.target.getTarget().getId());
+        } catch (RuntimeException e) {
+            log.debug("Failed to close tab", e);
+        }
+        try {
+            tab.target.close();
+        } catch (Exception e) {
+            log.debug("Failed to close connection", e);
+        }
+        tabPermits.release();
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Pool has been closed");
+    }
+
+    /**
+     * @return A snapshot of the pool's state
+     */
+    public TargetPoolMetrics getMetrics() {
+        return new TargetPoolMetrics(
+            options.getMaxTabs() - leasePermits.availablePermits(),
+            idleTabs.size(),
+            waitingCallers.get(),
+            totalLeases.get(),
+            tabsCreated.get(),
+            tabsEvicted.get());
+    }
+
+    /**
+     * Closes all idle tabs. Tabs that are currently leased are closed when their lease is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        PooledTab tab;
+        while ((tab = idleTabs.pollFirst()) != null)
+            evict(tab, "the pool is closed");
+    }
+
+    static final class PooledTab {
+
+        final ConnectedTarget target;
+        int leases;
+
+        PooledTab(ConnectedTarget target) {
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import lombok.Data;
+
+/**
+ * A snapshot of a {@link TargetPool}'s state, returned by {@link TargetPool#getMetrics()}.
+ */
+@Data
+public final class TargetPoolMetrics {
+
+    /**
+     * The number of tabs currently leased
+     */
+    private final int leasedTabs;
+
+    /**
+     * The number of open tabs waiting to be leased
+     */
+    private final int idleTabs;
+
+    /**
+     * The number of callers waiting in {@link TargetPool#acquire()}
+     */
+    private final int waitingCallers;
+
+    /**
+     * The total number of leases handed out
+     */
+    private final long totalLeases;
+
+    /**
+     * The total number of tabs opened by the pool
+     */
+    private final long tabsCreated;
+
+    /**
+     * The total number of tabs closed because they were broken, failed to reset, or reached their
+     * maximum number of leases
+     */
+    private final long tabsEvicted;
+}
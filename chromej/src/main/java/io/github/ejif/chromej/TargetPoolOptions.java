@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Options for a {@link TargetPool}. Use {@link #builder()} to override individual options; unset
+ * options keep their defaults.
+ */
+@Builder(toBuilder = true)
+@Data
+public final class TargetPoolOptions {
+
+    /**
+     * The maximum number of tabs that may be leased at once, and that the pool keeps open, leased or
+     * idle, including the idle tabs opened for <code>minIdleTabs</code>. Further calls to
+     * {@link TargetPool#acquire()} wait for a lease to be closed.
+     */
+    @Builder.Default
+    private final int maxTabs = 8;
+
+    /**
+     * The number of tabs to open and connect when the pool is created, so the first leases don't pay
+     * for tab setup. These count against <code>maxTabs</code>.
+     */
+    @Builder.Default
+    private final int minIdleTabs = 0;
+
+    /**
+     * How long {@link TargetPool#acquire()} waits for a tab when <code>maxTabs</code> tabs are
+     * leased.
+     */
+    @Builder.Default
+    private final long acquireTimeoutMillis = 30_000;
+
+    /**
+     * The number of leases after which a tab is closed and replaced, which bounds the state (e.g.
+     * memory) that a tab can accumulate across jobs.
+     */
+    @Builder.Default
+    private final int maxLeasesPerTab = 100;
+
+    /**
+     * The options used for each tab's WebSocket connection.
+     */
+    @Builder.Default
+    private final WebSocketOptions webSocketOptions = WebSocketOptions.defaults();
+
+    /**
+     * @return The default options
+     */
+    public static TargetPoolOptions defaults() {
+        return builder().build();
+    }
+}
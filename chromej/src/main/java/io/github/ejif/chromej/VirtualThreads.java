@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates threads and executors that use virtual threads on Java 21 and later, and daemon platform
+ * threads on older versions. ChromeJ is compiled for Java 8, so the virtual thread API is looked up
+ * reflectively, once. On Java 19 and 20 the API exists but throws unless preview features are
+ * enabled, so it is also tried out once before virtual threads count as supported.
+ */
+public final class VirtualThreads {
+
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+    private static final Method newThreadPerTaskExecutor;
+
+    static {
+        Method ofVirtual_ = null;
+        Method name_ = null;
+        Method factory_ = null;
+        Method newThreadPerTaskExecutor_ = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual_ = Thread.class.getMethod("ofVirtual");
+            name_ = builderClass.getMethod("name", String.class, long.class);
+            factory_ = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor_ = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            ofVirtual_.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // running on a JVM without virtual threads, or with them only as a preview feature
+            ofVirtual_ = null;
+        }
+        ofVirtual = ofVirtual_;
+        name = name_;
+        factory = factory_;
+        newThreadPerTaskExecutor = newThreadPerTaskExecutor_;
+    }
+
+    private VirtualThreads() {}
+
+    /**
+     * @return Whether this JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Creates a thread factory for threads named <code>prefix-N</code>.
+     *
+     * @param prefix
+     *            The prefix of each thread's name
+     * @return A factory of virtual threads if they are supported, otherwise of daemon threads
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        if (!isSupported())
+            return new DaemonThreadFactory(prefix);
+        try {
+            return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(null), prefix + "-", 1L));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Creates an executor that runs each task on a new thread named <code>prefix-N</code>.
+     *
+     * @param prefix
+     *            The prefix of each thread's name
+     * @return An executor that starts a virtual thread per task if they are supported, otherwise a
+     *         cached pool of daemon threads
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory threadFactory = newThreadFactory(prefix);
+        if (!isSupported())
+            return Executors.newCachedThreadPool(threadFactory);
+        try {
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.websocket.DeploymentException;
+
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.glassfish.tyrus.container.grizzly.client.GrizzlyClientProperties;
+
+/**
+ * A reusable WebSocket client used to open connections to Chrome. Creating a Tyrus client looks up
+ * the container and, by default, starts a new Grizzly transport with its own selector and worker
+ * threads for every connection. A {@link WebSocketClient} is created once and shares a single
+ * transport between all of its connections, so opening a connection only costs the handshake.
+ * <p>
+ * Tyrus keeps one shared transport per JVM, which every client uses. Its threads are therefore
+ * configured for the whole JVM, with {@link #configureThreads(int, int)}, before the first
+ * connection is opened. The transport is stopped after it has had no open connections for a
+ * while, and restarted with the same threads when needed again.
+ */
+public final class WebSocketClient {
+
+    private static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024 + 16;
+
+    // guarded by WebSocketClient.class; fixed once the first connection has been opened
+    private static int selectorThreads = Runtime.getRuntime().availableProcessors();
+    private static int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private static boolean threadsFixed;
+
+    private static final WebSocketClient DEFAULT = new WebSocketClient(30_000);
+
+    private final long connectTimeoutMillis;
+    private final int maxFrameSize;
+    private final ClientManager clientManager;
+
+    // guarded by this
+    private boolean threadsConfigured;
+
+    /**
+     * Creates a client with its own Tyrus client manager.
+     *
+     * @param connectTimeoutMillis
+     *            How long to wait for the WebSocket handshake to complete
+     */
+    public WebSocketClient(long connectTimeoutMillis) {
+        this(connectTimeoutMillis, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Creates a client with its own Tyrus client manager.
+     *
+     * @param connectTimeoutMillis
+     *            How long to wait for the WebSocket handshake to complete
+     * @param maxFrameSize
+     *            The largest WebSocket frame, in bytes, that may be received. Chrome sends each
+     *            message in a single frame, so this should be at least
+     *            {@link WebSocketOptions#getMaxMessageSize()}.
+     */
+    public WebSocketClient(long connectTimeoutMillis, int maxFrameSize) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.maxFrameSize = maxFrameSize;
+        this.clientManager = ClientManager.createClient();
+        clientManager.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+        clientManager.getProperties().put(ClientProperties.HANDSHAKE_TIMEOUT, connectTimeoutMillis);
+        clientManager.getProperties().put(ClientProperties.INCOMING_BUFFER_SIZE, maxFrameSize);
+    }
+
+    /**
+     * Sets the threads of the transport shared by all clients. By default, there is a selector
+     * thread per available processor and up to two worker threads per processor.
+     *
+     * @param selectorThreads
+     *            The number of selector threads performing socket I/O
+     * @param workerThreads
+     *            The maximum number of worker threads handling received messages
+     * @throws IllegalStateException
+     *             if a connection has already been opened
+     */
+    public static synchronized void configureThreads(int selectorThreads, int workerThreads) {
+        if (threadsFixed)
+            throw new IllegalStateException("Threads must be configured before the first connection is opened");
+        if (selectorThreads <= 0 || workerThreads <= 0)
+            throw new IllegalArgumentException("Thread counts must be positive");
+        WebSocketClient.selectorThreads = selectorThreads;
+        WebSocketClient.workerThreads = workerThreads;
+    }
+
+    /**
+     * @return The client used by connections that don't configure one
+     */
+    public static WebSocketClient getDefault() {
+        return DEFAULT;
+    }
+
+    public static synchronized int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    public static synchronized int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Connects the given annotated endpoint to the given URL.
+     */
+    void connect(Object endpoint, String url) throws DeploymentException, IOException {
+        configureTransport();
+        clientManager.connectToServer(endpoint, URI.create(url));
+    }
+
+    /**
+     * Passes the JVM-wide thread configuration to this client's manager, which Tyrus uses if the
+     * shared transport is not running yet.
+     */
+    private synchronized void configureTransport() {
+        if (threadsConfigured)
+            return;
+        synchronized (WebSocketClient.class) {
+            threadsFixed = true;
+            clientManager.getProperties().put(GrizzlyClientProperties.SELECTOR_THREAD_POOL_CONFIG, ThreadPoolConfig.defaultConfig()
+                .setPoolName("chromej-selector")
+                .setCorePoolSize(selectorThreads)
+                .setMaxPoolSize(selectorThreads)
+                .setDaemon(true));
+            clientManager.getProperties().put(GrizzlyClientProperties.WORKER_THREAD_POOL_CONFIG, ThreadPoolConfig.defaultConfig()
+                .setPoolName("chromej-worker")
+                .setCorePoolSize(Math.min(selectorThreads, workerThreads))
+                .setMaxPoolSize(workerThreads)
+                .setDaemon(true));
+        }
+        threadsConfigured = true;
+    }
+}
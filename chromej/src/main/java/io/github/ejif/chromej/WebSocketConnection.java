@@ -0,0 +1,774 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.ClientEndpoint;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.DeploymentException;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.PongMessage;
+import javax.websocket.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import lombok.Data;
+
+/**
+ * A WebSocket connection to Chrome. A connection carries commands and events for its root
+ * {@link ConnectedWebSocket} and, in flat mode, for any number of attached target sessions, which
+ * are distinguished by the <code>sessionId</code> field of each message.
+ * <p>
+ * When the WebSocket closes unexpectedly (or stops answering heartbeats), every command in flight
+ * fails at once. If the {@link ReconnectPolicy} allows, the connection then resolves the root's
+ * WebSocket URL again, reconnects with backoff and re-sends the root's domain enables before
+ * accepting commands again; commands sent while it is reconnecting fail immediately. Event
+ * listeners are kept by the {@link ConnectedWebSocket}s and need no replaying, but flat-mode
+ * sessions don't survive the old connection: they are detached when it closes, after which they
+ * report being closed and their commands fail.
+ */
+final class WebSocketConnection implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketConnection.class);
+
+    /**
+     * The mapper for all protocol messages. Each protocol class names its generated serializer and
+     * deserializer in its annotations, which Jackson looks up the first time the class is used.
+     */
+    static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Commands besides <code>*.enable</code> whose effect on Chrome's side is replayed after
+     * reconnecting.
+     */
+    private static final Set<String> REPLAYED_COMMANDS = new HashSet<>(Arrays.asList(
+        "Page.setLifecycleEventsEnabled",
+        "Target.setAutoAttach",
+        "Target.setDiscoverTargets"));
+    private static final ByteBuffer PING = ByteBuffer.allocate(0);
+
+    private enum State {
+        OPEN, RECONNECTING, CLOSED
+    }
+
+    private final ConnectedWebSocket root;
+    private final WebSocketOptions options;
+    private final MetricsListener metrics;
+    private final boolean metricsEnabled;
+    private final int maxMessageSize;
+    private final PendingCommands pendingCommands;
+    private final AtomicLong commandCount = new AtomicLong();
+    private final WriteQueue<PendingCommand> writeQueue;
+    private final RequestEncoder encoder = new RequestEncoder(mapper);
+    private final Map<String, ConnectedWebSocket> sessions = new ConcurrentHashMap<>();
+    private final ReconnectPolicy reconnectPolicy;
+    /**
+     * The last params of each replayed command sent by the root, in the order first sent.
+     */
+    private final Map<String, Object> replayedCommands = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final ScheduledFuture<?> heartbeat;
+
+    private volatile Endpoint endpoint;
+    private volatile State state = State.OPEN;
+    private volatile boolean reconnectStopped;
+
+    /**
+     * Establishes a WebSocket connection to the given URL.
+     *
+     * @param webSocketDebuggerUrl
+     *            The URL to connect to
+     * @param options
+     *            The options for this connection
+     * @param root
+     *            The {@link ConnectedWebSocket} that receives events without a session ID
+     * @throws ConnectionException
+     *             if an error occurred when establishing a connection
+     */
+    WebSocketConnection(String webSocketDebuggerUrl, WebSocketOptions options, ConnectedWebSocket root) throws ConnectionException {
+        this.root = root;
+        this.options = options;
+        this.metrics = options.getMetricsListener();
+        this.metricsEnabled = metrics != MetricsListener.NOOP;
+        this.maxMessageSize = options.getMaxMessageSize();
+        this.pendingCommands = new PendingCommands(options.getMaxInFlightCommands(), this::admitted);
+        this.writeQueue = new WriteQueue<>(options.getDispatcher(), this::write);
+        this.reconnectPolicy = options.getReconnectPolicy();
+
+        this.endpoint = connect(webSocketDebuggerUrl);
+        long heartbeatIntervalMillis = options.getHeartbeatIntervalMillis();
+        this.heartbeat = heartbeatIntervalMillis <= 0 ? null : ConnectedWebSocket.timeoutScheduler.scheduleWithFixedDelay(
+            this::checkHeartbeat,
+            heartbeatIntervalMillis,
+            heartbeatIntervalMillis,
+            TimeUnit.MILLISECONDS);
+        if (!endpoint.session.isOpen())
+            disconnected(endpoint, "WebSocket closed");
+    }
+
+    private Endpoint connect(String webSocketDebuggerUrl) throws ConnectionException {
+        log.debug("Connecting to {}...", webSocketDebuggerUrl);
+        WebSocketClient client = options.getClient();
+        Endpoint endpoint = new Endpoint();
+        try {
+            client.connect(endpoint, webSocketDebuggerUrl);
+            if (!endpoint.opened.await(client.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS))
+                throw new ConnectionException(new IOException("Timeout when connecting to " + webSocketDebuggerUrl));
+        } catch (DeploymentException | InterruptedException | IOException e) {
+            throw new ConnectionException(e);
+        }
+        log.debug("Connected to {}.", webSocketDebuggerUrl);
+        return endpoint;
+    }
+
+    /**
+     * Routes events with the given session ID to the given {@link ConnectedWebSocket}.
+     */
+    void register(String sessionId, ConnectedWebSocket webSocket) {
+        sessions.put(sessionId, webSocket);
+    }
+
+    void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * @return Whether the given session is still attached, i.e. has not been unregistered and has
+     *         not been lost with an earlier WebSocket connection
+     */
+    boolean isAttached(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /**
+     * Sends a command and returns a future completed with its result. The result is decoded straight
+     * from the response message into the given type.
+     *
+     * @param sessionId
+     *            The session to send the command to, or null for the root session
+     * @param method
+     *            The fully qualified command name
+     * @param params
+     *            The request object, or null if the command takes no parameters
+     * @param resultType
+     *            The class to decode the result into
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for the command
+     * @return A future completed with the result
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> send(String sessionId, String method, Object params, Class<T> resultType, CallOptions callOptions) {
+        PendingCommand command = newCommand(sessionId, method, params, resultType);
+        if (register(command, callOptions, false))
+            writeQueue.add(command);
+        return (CompletableFuture<T>) command.future;
+    }
+
+    /**
+     * Sends several commands back to back. Every command is registered and queued before the writer
+     * is woken up, so the writer sends them in one pass and their responses arrive after a single
+     * round trip instead of one round trip each. Commands beyond the in-flight limit are queued, like
+     * any other, and sent as earlier commands complete, so a large batch never stalls on the limit.
+     *
+     * @param sessionId
+     *            The session to send the commands to, or null for the root session
+     * @param commands
+     *            The commands to send
+     * @param callOptions
+     *            The timeout, deadline and cancellation token for each command
+     * @return Futures completed with each command's result, in the same order as the commands
+     */
+    List<CompletableFuture<Object>> sendBatch(String sessionId, List<CommandBatch.BatchedCommand> commands, CallOptions callOptions) {
+        List<PendingCommand> toWrite = new ArrayList<>(commands.size());
+        List<CompletableFuture<Object>> futures = new ArrayList<>(commands.size());
+        for (CommandBatch.BatchedCommand batched : commands) {
+            PendingCommand command = newCommand(sessionId, batched.method, batched.params, batched.resultType);
+            if (register(command, callOptions, false))
+                toWrite.add(command);
+            futures.add(command.future);
+        }
+        writeQueue.addAll(toWrite);
+        return futures;
+    }
+
+    /**
+     * Creates a command with the next ID, counting it as started.
+     */
+    private PendingCommand newCommand(String sessionId, String method, Object params, Class<?> resultType) {
+        PendingCommand command = new PendingCommand(nextCommandId(), method, resultType);
+        command.sessionId = sessionId;
+        command.params = params;
+        if (metricsEnabled) {
+            command.startNanos = System.nanoTime();
+            metrics.commandStarted(method);
+        }
+        return command;
+    }
+
+    /**
+     * Adds a command to the pending-command table, schedules its timeout and hooks up cancellation.
+     * Never blocks: if too many commands are in flight, the command waits for an earlier one to
+     * complete and is then queued for writing by {@link #admitted(PendingCommand)}. If the
+     * connection is not open, the deadline has already passed or the token has been cancelled, the
+     * command fails instead.
+     *
+     * @param replay
+     *            Whether the command is being replayed after reconnecting, before the connection
+     *            accepts other commands
+     * @return Whether the caller should queue the command for writing now
+     */
+    private boolean register(PendingCommand command, CallOptions callOptions, boolean replay) {
+        String method = command.method;
+        State state = this.state;
+        if (state != State.OPEN && !replay) {
+            complete(command, null, new IllegalStateException(String.format(
+                "Cannot run %s (ID %s): WebSocket %s", method, command.id, state == State.CLOSED ? "closed" : "is reconnecting")), false);
+            return false;
+        }
+        if (command.sessionId != null && !sessions.containsKey(command.sessionId)) {
+            complete(command, null, new IllegalStateException(String.format(
+                "Cannot run %s (ID %s): session %s is detached", method, command.id, command.sessionId)), false);
+            return false;
+        }
+        if (command.sessionId == null && !replay)
+            recordReplayedCommand(method, command.params);
+        long timeoutMillis = callOptions.getTimeoutMillis(method, options);
+        if (timeoutMillis <= 0) {
+            complete(command, null, new RuntimeException(String.format(
+                "Timeout when running %s (ID %s): deadline has passed", method, command.id)), true);
+            return false;
+        }
+        // a cancelled command must not take a permit, or a place in the queue for one
+        CancellationToken token = callOptions.getCancellationToken();
+        if (token != null && token.isCancelled()) {
+            complete(command, null, new CancellationException(String.format("Cancelled %s (ID %s)", method, command.id)), false);
+            return false;
+        }
+        boolean added = pendingCommands.add(command);
+
+        command.timeout = ConnectedWebSocket.timeoutScheduler.schedule(
+            () -> timeOut(command),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS);
+        // a future cancelled by the caller frees its slot instead of waiting for the timeout
+        command.future.whenComplete((result, t) -> {
+            if (t instanceof CancellationException)
+                fail(command, t);
+        });
+        // cancelling the token also takes the command out of the queue if it is still waiting
+        if (token != null) {
+            Subscription subscription = token.onCancel(() -> fail(command, new CancellationException(
+                String.format("Cancelled %s (ID %s)", method, command.id))));
+            command.future.whenComplete((result, t) -> subscription.close());
+        }
+        if (command.future.isDone()) {
+            command.timeout.cancel(false);
+            return false;
+        }
+        return added;
+    }
+
+    /**
+     * Queues a command that had to wait for an in-flight permit, once it has one.
+     */
+    private void admitted(PendingCommand command) {
+        writeQueue.add(command);
+    }
+
+    /**
+     * Remembers the domains enabled (and similar settings made) by the root, to replay them after
+     * reconnecting.
+     */
+    private void recordReplayedCommand(String method, Object params) {
+        if (!reconnectPolicy.isEnabled())
+            return;
+        if (method.endsWith(".enable") || REPLAYED_COMMANDS.contains(method))
+            replayedCommands.put(method, params);
+        else if (method.endsWith(".disable"))
+            replayedCommands.remove(method.substring(0, method.length() - "disable".length()) + "enable");
+    }
+
+    /**
+     * Hands out command IDs, which are unique within this connection and always non-negative. After
+     * 2^31 commands the IDs wrap around to 0, skipping any that a long-running command still holds.
+     */
+    private int nextCommandId() {
+        while (true) {
+            long count = commandCount.getAndIncrement();
+            int id = (int) (count & Integer.MAX_VALUE);
+            if (count <= Integer.MAX_VALUE || !pendingCommands.contains(id))
+                return id;
+        }
+    }
+
+    /**
+     * Encodes a queued command and hands it to the WebSocket session without waiting for it to be
+     * sent. Only called by the connection's writer, which owns the encoder; since no caller touches
+     * the session, callers never contend on its locks, which would also pin virtual threads to their
+     * carriers. Commands that completed while queued (e.g. cancelled or timed out) are skipped.
+     * Each command is sent as its own message, see {@link RequestEncoder}.
+     */
+    private void write(PendingCommand command) {
+        Object params = command.params;
+        command.params = null;
+        if (command.future.isDone())
+            return;
+        log.debug("Sending '{}' command to Chrome (ID {})...", command.method, command.id);
+        log.trace("Params: {}", params);
+        String message;
+        try {
+            message = encoder.encode(command.id, command.method, params, command.sessionId);
+        } catch (IOException | RuntimeException e) {
+            fail(command, e);
+            return;
+        }
+        if (metricsEnabled)
+            metrics.commandSent(command.method, message.length());
+        try {
+            endpoint.session.getAsyncRemote().sendText(message, sendResult -> {
+                if (!sendResult.isOK())
+                    fail(command, sendResult.getException());
+            });
+        } catch (RuntimeException e) {
+            fail(command, e);
+        }
+    }
+
+    /**
+     * Removes a pending command, whether it is in flight or still waiting for a permit, and
+     * completes it exceptionally. Does nothing if the command has already completed.
+     */
+    private void fail(PendingCommand command, Throwable t) {
+        if (pendingCommands.removeWaiting(command) || pendingCommands.remove(command.id) != null)
+            complete(command, null, t, false);
+    }
+
+    /**
+     * Removes a pending command because no response arrived in time.
+     */
+    private void timeOut(PendingCommand command) {
+        if (pendingCommands.removeWaiting(command))
+            complete(command, null, new RuntimeException(String.format(
+                "Timeout when running %s (ID %s): too many commands in flight", command.method, command.id)), true);
+        else if (pendingCommands.remove(command.id) != null)
+            complete(command, null, new RuntimeException(String.format(
+                "Timeout when running %s (ID %s)", command.method, command.id)), true);
+    }
+
+    /**
+     * Handles a message received from Chrome, which is either a command response (with an ID) or an
+     * event (with a method and params). The message is read in a single pass: once the ID has been
+     * read, the result is decoded directly into the type registered by
+     * {@link #send(String, String, Object, Class, CallOptions)}. Event params are buffered as tokens and
+     * decoded by each listener's executor.
+     *
+     * @param parser
+     *            A parser positioned before the message
+     */
+    void handleMessage(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Expected a JSON object");
+
+        Integer id = null;
+        PendingCommand command = null;
+        try {
+            Object result = null;
+            TokenBuffer bufferedResult = null;
+            Error error = null;
+            String method = null;
+            TokenBuffer params = null;
+            String sessionId = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = parser.getIntValue();
+                        command = pendingCommands.remove(id);
+                        break;
+                    case "result":
+                        if (id == null)
+                            bufferedResult = buffer(parser);
+                        else if (command != null)
+                            result = readResult(parser, command);
+                        else
+                            parser.skipChildren();
+                        break;
+                    case "error":
+                        error = mapper.readValue(parser, Error.class);
+                        break;
+                    case "method":
+                        method = parser.getText();
+                        break;
+                    case "params":
+                        params = buffer(parser);
+                        break;
+                    case "sessionId":
+                        sessionId = parser.getText();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            if (id == null) {
+                ConnectedWebSocket target = sessionId == null ? root : sessions.get(sessionId);
+                if (target == null)
+                    log.debug("Ignoring event {} for unknown session {}.", method, sessionId);
+                else
+                    target.dispatch(method, params);
+                return;
+            }
+            if (command == null) {
+                log.debug("Ignoring response for command with ID {}, which is no longer pending.", id);
+                return;
+            }
+            log.debug("Received response for command with ID {}.", id);
+            if (error != null) {
+                complete(command, null, new RuntimeException(String.format("%s (%s)", error.message, error.data)), false);
+            } else {
+                if (bufferedResult != null)
+                    result = readResult(bufferedResult.asParser(), command);
+                complete(command, result, null, false);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (command == null)
+                throw e;
+            complete(command, null, e, false);
+        }
+    }
+
+    private static Object readResult(JsonParser parser, PendingCommand command) throws IOException {
+        if (parser.getCurrentToken() == null)
+            parser.nextToken();
+        if (command.resultType == void.class || command.resultType == Void.class) {
+            parser.skipChildren();
+            return null;
+        }
+        return mapper.readValue(parser, command.resultType);
+    }
+
+    private static TokenBuffer buffer(JsonParser parser) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(parser);
+        buffer.copyCurrentStructure(parser);
+        return buffer;
+    }
+
+    /**
+     * Completes a command that is no longer pending (or never was), reporting it to the metrics
+     * listener.
+     */
+    private void complete(PendingCommand command, Object result, Throwable t, boolean timedOut) {
+        if (command.timeout != null)
+            command.timeout.cancel(false);
+        if (metricsEnabled) {
+            long latencyNanos = System.nanoTime() - command.startNanos;
+            if (timedOut)
+                metrics.commandTimedOut(command.method, latencyNanos);
+            else if (t != null)
+                metrics.commandFailed(command.method, latencyNanos, t);
+            else
+                metrics.commandSucceeded(command.method, latencyNanos);
+        }
+        if (t != null)
+            command.future.completeExceptionally(t);
+        else
+            command.future.complete(result);
+    }
+
+    /**
+     * Fails every pending command, e.g. because the connection closed.
+     */
+    private void failAll(String reason) {
+        for (PendingCommand command : pendingCommands.removeAll())
+            complete(command, null, new IllegalStateException(
+                String.format("%s before a response was received for %s (ID %s)", reason, command.method, command.id)), false);
+    }
+
+    /**
+     * @return Whether the WebSocket connection is still open
+     */
+    boolean isOpen() {
+        return state == State.OPEN && endpoint.session.isOpen();
+    }
+
+    /**
+     * Pings Chrome, unless nothing was received since the previous ping, in which case the
+     * connection is considered dead.
+     */
+    private void checkHeartbeat() {
+        if (state != State.OPEN)
+            return;
+        try {
+            // pinging, or closing a dead connection, may block, which must not delay command timeouts
+            options.getDispatcher().execute(this::ping);
+        } catch (RejectedExecutionException e) {
+            log.debug("Failed to schedule WebSocket ping", e);
+        }
+    }
+
+    private void ping() {
+        Endpoint endpoint = this.endpoint;
+        if (state != State.OPEN)
+            return;
+        if (endpoint.awaitingPong) {
+            log.warn("No response to WebSocket ping within {} ms.", options.getHeartbeatIntervalMillis());
+            disconnected(endpoint, "WebSocket heartbeat timed out");
+            return;
+        }
+        endpoint.awaitingPong = true;
+        try {
+            endpoint.session.getAsyncRemote().sendPing(PING.duplicate());
+        } catch (IOException | RuntimeException e) {
+            disconnected(endpoint, "WebSocket ping failed");
+        }
+    }
+
+    /**
+     * Handles the given endpoint's WebSocket closing or being found dead: fails every command in
+     * flight and, if the policy allows, starts reconnecting. Does nothing if the endpoint has
+     * already been replaced or the connection has been closed.
+     */
+    private void disconnected(Endpoint lost, String reason) {
+        boolean reconnect;
+        synchronized (this) {
+            if (lost != endpoint || state != State.OPEN)
+                return;
+            reconnect = reconnectPolicy.isEnabled() && !reconnectStopped;
+            state = reconnect ? State.RECONNECTING : State.CLOSED;
+        }
+        // Chrome ends the sessions attached over the old connection
+        sessions.clear();
+        failAll(reason);
+        closeQuietly(lost);
+        if (reconnect) {
+            log.info("{}, reconnecting.", reason);
+            scheduleReconnect(1);
+        } else if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+    }
+
+    private void scheduleReconnect(int attempt) {
+        ConnectedWebSocket.timeoutScheduler.schedule(() -> {
+            try {
+                options.getDispatcher().execute(() -> reconnect(attempt));
+            } catch (RejectedExecutionException e) {
+                log.warn("Failed to schedule reconnecting", e);
+                giveUp();
+            }
+        }, reconnectPolicy.getBackoffMillis(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolves the root's WebSocket URL again and connects to it. Once connected, the recorded
+     * domain enables are queued ahead of any other command before the connection accepts commands
+     * again; they need not complete first, since Chrome handles a session's commands in order.
+     */
+    private void reconnect(int attempt) {
+        if (state != State.RECONNECTING)
+            return;
+        Endpoint reconnected;
+        try {
+            reconnected = connect(root.resolveWebSocketDebuggerUrl());
+        } catch (ConnectionException | RuntimeException e) {
+            if (attempt >= reconnectPolicy.getMaxAttempts()) {
+                log.warn("Failed to reconnect after " + attempt + " attempts", e);
+                giveUp();
+            } else {
+                log.debug("Failed to reconnect (attempt " + attempt + ")", e);
+                scheduleReconnect(attempt + 1);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (state != State.RECONNECTING) {
+                closeQuietly(reconnected);
+                return;
+            }
+            endpoint = reconnected;
+        }
+        replay();
+        synchronized (this) {
+            if (state == State.RECONNECTING)
+                state = State.OPEN;
+        }
+        log.info("Reconnected after {} attempts.", attempt);
+        if (!reconnected.session.isOpen())
+            disconnected(reconnected, "WebSocket closed");
+    }
+
+    private void replay() {
+        List<Map.Entry<String, Object>> commands;
+        synchronized (replayedCommands) {
+            commands = new ArrayList<>(replayedCommands.entrySet());
+        }
+        List<PendingCommand> toWrite = new ArrayList<>(commands.size());
+        for (Map.Entry<String, Object> replayed : commands) {
+            String method = replayed.getKey();
+            PendingCommand command = newCommand(null, method, replayed.getValue(), Void.class);
+            command.future.whenComplete((result, t) -> {
+                if (t != null)
+                    log.warn("Failed to replay " + method + " after reconnecting", t);
+            });
+            if (register(command, CallOptions.defaults(), true))
+                toWrite.add(command);
+        }
+        writeQueue.addAll(toWrite);
+    }
+
+    /**
+     * Leaves the connection closed the next time it closes.
+     */
+    void stopReconnecting() {
+        reconnectStopped = true;
+    }
+
+    private synchronized void giveUp() {
+        if (state == State.RECONNECTING)
+            state = State.CLOSED;
+        if (heartbeat != null)
+            heartbeat.cancel(false);
+    }
+
+    private static void closeQuietly(Endpoint endpoint) {
+        try {
+            endpoint.session.close();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to close websocket session", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.debug("Closing websocket session.");
+        synchronized (this) {
+            state = State.CLOSED;
+        }
+        sessions.clear();
+        if (heartbeat != null)
+            heartbeat.cancel(false);
+        try {
+            endpoint.session.close();
+        } finally {
+            failAll("WebSocket closed");
+        }
+    }
+
+    @ClientEndpoint
+    public final class Endpoint {
+
+        private final CountDownLatch opened = new CountDownLatch(1);
+        // only touched by the thread delivering the current message, one part at a time
+        private final MessageTokenizer tokenizer = new MessageTokenizer(mapper);
+        private boolean discardingMessage;
+        private volatile Session session;
+        /**
+         * Whether a ping was sent and nothing has been received since.
+         */
+        private volatile boolean awaitingPong;
+
+        @OnOpen
+        public void onOpen(Session session) {
+            log.trace("Opened websocket.");
+            this.session = session;
+            opened.countDown();
+        }
+
+        /**
+         * Receives a message, or part of one. A message that arrives in one part, as Chrome sends
+         * it in a single frame, is parsed straight from the string. A message that arrives
+         * fragmented is tokenized part by part as the fragments arrive and handled after the last
+         * one, without joining them into one string. Messages longer than maxMessageSize close the
+         * connection.
+         */
+        @OnMessage
+        public void onMessage(String part, boolean last) throws IOException {
+            awaitingPong = false;
+            if (discardingMessage) {
+                discardingMessage = !last;
+                return;
+            }
+            long length = tokenizer.length() + part.length();
+            if (length > maxMessageSize) {
+                tokenizer.reset();
+                discardingMessage = !last;
+                String reason = String.format("Message exceeds %s characters", maxMessageSize);
+                try {
+                    session.close(new CloseReason(CloseCodes.TOO_BIG, reason));
+                } finally {
+                    disconnected(this, "WebSocket closed: " + reason);
+                }
+                return;
+            }
+            if (last && !tokenizer.isStarted()) {
+                try (JsonParser parser = mapper.getFactory().createParser(part)) {
+                    handleMessage(parser);
+                }
+            } else {
+                TokenBuffer message = tokenizer.feed(part, last);
+                if (message == null)
+                    return;
+                try (JsonParser parser = message.asParser()) {
+                    handleMessage(parser);
+                }
+            }
+            if (metricsEnabled)
+                metrics.messageReceived(length);
+        }
+
+        @OnMessage
+        public void onPong(PongMessage pong) {
+            awaitingPong = false;
+        }
+
+        @OnClose
+        public void onClose(CloseReason closeReason) {
+            log.debug("Websocket closed: {}", closeReason);
+            disconnected(this, "WebSocket closed");
+        }
+
+        @OnError
+        public void onError(Throwable t) throws InterruptedException {
+            log.warn("Error in Websocket", t);
+        }
+    }
+
+    @Data
+    private static final class Error {
+
+        private final int code;
+        private final String message;
+        private final Object data;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Options used when establishing a {@link ConnectedWebSocket}. Use {@link #builder()} to override
+ * individual options; unset options keep their defaults.
+ */
+@Builder(toBuilder = true)
+@Data
+public final class WebSocketOptions {
+
+    private static final ExecutorService DEFAULT_EVENT_EXECUTOR = Executors.newCachedThreadPool(
+        new DaemonThreadFactory("chromej-events"));
+    private static final ExecutorService DEFAULT_DISPATCHER = Executors.newCachedThreadPool(
+        new DaemonThreadFactory("chromej-writer"));
+
+    /**
+     * How long to wait for a response to each command executed over the WebSocket connection.
+     */
+    @Builder.Default
+    private final long timeoutMillis = ConnectedWebSocket.DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Timeouts that override {@link #getTimeoutMillis()} for particular commands. Keys are either a
+     * domain name (e.g. <code>Page</code>) or a fully qualified command name (e.g.
+     * <code>Page.printToPDF</code>); a command's own entry takes precedence over its domain's.
+     */
+    @Builder.Default
+    private final Map<String, Long> timeoutMillisByDomain = Collections.emptyMap();
+
+    /**
+     * The maximum number of commands that may be awaiting a response at once. Further commands are
+     * queued, without blocking their callers, and sent as earlier commands complete; time spent
+     * queued counts towards the command timeout.
+     */
+    @Builder.Default
+    private final int maxInFlightCommands = 1024;
+
+    /**
+     * The largest message, in characters, that may be received over the connection. Each message
+     * is held in memory in full while it is decoded (as a string, or as tokens if it arrives
+     * fragmented), so this also bounds the memory a single message (e.g. a screenshot) takes.
+     * Larger messages close the connection.
+     */
+    @Builder.Default
+    private final int maxMessageSize = 64 * 1024 * 1024;
+
+    /**
+     * The executor that event listeners are called on. Events for a single connection are always
+     * delivered one at a time and in order, so a slow listener delays later events for that
+     * connection but never the WebSocket read thread. Defaults to a shared pool of daemon threads.
+     */
+    @Builder.Default
+    private final Executor eventExecutor = DEFAULT_EVENT_EXECUTOR;
+
+    /**
+     * The executor that runs each connection's writer. Callers never write to the socket
+     * themselves: they queue their commands, and a single writer per connection sends them in
+     * order, so callers never contend for (or block inside) the WebSocket session. The writer only
+     * occupies a thread while there are commands to send. Defaults to a shared pool of daemon
+     * threads.
+     */
+    @Builder.Default
+    private final Executor dispatcher = DEFAULT_DISPATCHER;
+
+    /**
+     * Receives measurements of command latency, errors, message sizes and event queue depth. The
+     * default ignores them at no cost.
+     */
+    @Builder.Default
+    private final MetricsListener metricsListener = MetricsListener.NOOP;
+
+    /**
+     * The client used to open the connection. Connections that share a client share its transport
+     * and threads.
+     */
+    @Builder.Default
+    private final WebSocketClient client = WebSocketClient.getDefault();
+
+    /**
+     * How often to ping Chrome to check that the connection is alive, or 0 to not ping. A
+     * connection over which nothing (neither a pong nor any other message) was received between
+     * two pings is considered dead: it is closed, failing the commands in flight, and reconnected
+     * if {@link #getReconnectPolicy()} allows.
+     */
+    @Builder.Default
+    private final long heartbeatIntervalMillis = 0;
+
+    /**
+     * How to reconnect after the connection closes unexpectedly. By default, connections don't
+     * reconnect.
+     */
+    @Builder.Default
+    private final ReconnectPolicy reconnectPolicy = ReconnectPolicy.disabled();
+
+    /**
+     * Gets the default timeout for the given command, taking {@link #getTimeoutMillisByDomain()}
+     * into account.
+     *
+     * @param method
+     *            The fully qualified command name, e.g. <code>Runtime.evaluate</code>
+     * @return How long to wait for a response to the command
+     */
+    public long getTimeoutMillis(String method) {
+        if (timeoutMillisByDomain.isEmpty())
+            return timeoutMillis;
+        Long timeout = timeoutMillisByDomain.get(method);
+        if (timeout == null) {
+            int dot = method.indexOf('.');
+            if (dot >= 0)
+                timeout = timeoutMillisByDomain.get(method.substring(0, dot));
+        }
+        return timeout != null ? timeout : timeoutMillis;
+    }
+
+    /**
+     * @return The default options
+     */
+    public static WebSocketOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Creates a builder for connections used from virtual threads. On Java 21 and later, each
+     * connection's writer and the event listeners run on virtual threads of their own; on older
+     * versions, this is the same as {@link #builder()}.
+     *
+     * @return A builder with the dispatcher and event executor set accordingly
+     */
+    public static WebSocketOptionsBuilder virtualThreadBuilder() {
+        if (!VirtualThreads.isSupported())
+            return builder();
+        return builder()
+            .dispatcher(VirtualThreadExecutors.DISPATCHER)
+            .eventExecutor(VirtualThreadExecutors.EVENT_EXECUTOR);
+    }
+
+    /**
+     * Holds the shared virtual-thread executors, which are only created if they are used.
+     */
+    private static final class VirtualThreadExecutors {
+
+        static final ExecutorService DISPATCHER = VirtualThreads.newExecutor("chromej-writer");
+        static final ExecutorService EVENT_EXECUTOR = VirtualThreads.newExecutor("chromej-events");
+    }
+}
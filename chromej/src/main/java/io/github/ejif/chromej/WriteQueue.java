@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands items added from any thread, in order, to a single consumer. The consumer runs on an
+ * executor only while there are items to consume, and takes every item that is queued when it
+ * runs in one pass, so items added together are consumed back to back. Adding an item never blocks
+ * and never takes a lock.
+ */
+final class WriteQueue<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteQueue.class);
+
+    private final MpscQueue<T> queue = new MpscQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor executor;
+    private final Consumer<T> consumer;
+
+    /**
+     * @param executor
+     *            The executor that the consumer runs on
+     * @param consumer
+     *            Called with each item, one at a time
+     */
+    WriteQueue(Executor executor, Consumer<T> consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    void add(T item) {
+        queue.offer(item);
+        schedule();
+    }
+
+    /**
+     * Adds several items, scheduling the consumer once they have all been queued.
+     */
+    void addAll(List<T> items) {
+        for (T item : items)
+            queue.offer(item);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // the executor has been shut down; consume on this thread rather than strand the items
+            drain();
+        }
+    }
+
+    private void drain() {
+        try {
+            T item;
+            while ((item = queue.poll()) != null) {
+                try {
+                    consumer.accept(item);
+                } catch (RuntimeException e) {
+                    log.warn("Error writing item", e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // an item whose producer saw this drain running is still queued
+            if (!queue.isEmpty())
+                schedule();
+        }
+    }
+}
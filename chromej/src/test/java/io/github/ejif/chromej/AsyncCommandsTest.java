@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
+
+public final class AsyncCommandsTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setEchoParams("Test.echo");
+        server.setUnanswered("Test.hang");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testCompletesWhenChromeResponds() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CompletableFuture<Object> hanging = target.executeAsync("Test.hang", null, Object.class);
+            CompletableFuture<JsonNode> echoed = target.executeAsync("Test.echo", Collections.singletonMap("n", 1), JsonNode.class);
+            assertThat(echoed.get(10, TimeUnit.SECONDS).get("n").asInt()).isEqualTo(1);
+            // a command that is never answered holds no thread and doesn't delay later ones
+            assertThat(hanging).isNotDone();
+            hanging.cancel(false);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersGetTheirOwnResponses() throws Exception {
+        int threads = 8;
+        int commandsPerThread = 100;
+        Map<Integer, CompletableFuture<JsonNode>> futures = new ConcurrentHashMap<>();
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CountDownLatch start = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                int first = t * commandsPerThread;
+                callers.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int n = first; n < first + commandsPerThread; n++)
+                        futures.put(n, target.executeAsync("Test.echo", Collections.singletonMap("n", n), JsonNode.class));
+                });
+            }
+            start.countDown();
+            callers.shutdown();
+            assertThat(callers.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+            // each command got an ID of its own, so each response completed the command it answers
+            assertThat(futures).hasSize(threads * commandsPerThread);
+            for (Map.Entry<Integer, CompletableFuture<JsonNode>> entry : futures.entrySet())
+                assertThat(entry.getValue().get(10, TimeUnit.SECONDS).get("n").asInt()).isEqualTo(entry.getKey());
+            assertThat(server.getCommandsReceived("Test.echo")).isEqualTo(threads * commandsPerThread);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompletesExceptionallyOnError() throws Exception {
+        server.setError("Test.fail", "{\"code\":-32000,\"message\":\"Something went wrong\"}");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CompletableFuture<Object> failed = target.executeAsync("Test.fail", null, Object.class);
+            assertThatThrownBy(() -> failed.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("Something went wrong");
+        }
+    }
+
+    @Test
+    public void testTimesOutWithoutResponse() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CompletableFuture<Object> hanging = target.executeAsync("Test.hang", null, Object.class, CallOptions.builder()
+                .timeoutMillis(100)
+                .build());
+            assertThatThrownBy(() -> hanging.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("Timeout when running Test.hang");
+        }
+    }
+
+    @Test
+    public void testFailsPendingCommandsOnClose() throws Exception {
+        CompletableFuture<Object> hanging;
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            hanging = target.executeAsync("Test.hang", null, Object.class);
+        }
+        assertThatThrownBy(() -> hanging.get(10, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasMessageContaining("before a response was received for Test.hang");
+    }
+
+    @Test
+    public void testSyncCommandsRunOnAsyncPath() throws Exception {
+        server.setError("Runtime.evaluate", "{\"code\":-32000,\"message\":\"Something went wrong\"}");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertThatThrownBy(() -> target.getProtocol().getRuntime().evaluate(EvaluateRequest.builder()
+                .expression("1 + 1")
+                .build()))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("Something went wrong");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.AsyncWsProtocol;
+import io.github.ejif.chromej.protocol.dom.AsyncDOM;
+import io.github.ejif.chromej.protocol.dom.GetDocumentRequest;
+import io.github.ejif.chromej.protocol.dom.GetOuterHTMLRequest;
+import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+public final class AsyncProtocolTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("DOM.getDocument", "{\"root\":{\"nodeId\":7,\"backendNodeId\":7,\"nodeType\":9,"
+                + "\"nodeName\":\"#document\",\"localName\":\"\",\"nodeValue\":\"\"}}");
+        server.setResult("DOM.getOuterHTML", "{\"outerHTML\":\"<html></html>\"}");
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testPipelinedCommands() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            AsyncDOM dom = target.getAsyncProtocol().getDOM();
+            String outerHtml = dom.getDocument(GetDocumentRequest.builder()
+                .build())
+                .thenCompose(document -> dom.getOuterHTML(GetOuterHTMLRequest.builder()
+                    .nodeId(document.getRoot().getNodeId())
+                    .build()))
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS)
+                .getOuterHTML();
+            assertThat(outerHtml).isEqualTo("<html></html>");
+            assertThat(server.getLastParams("DOM.getOuterHTML").get("nodeId").asInt()).isEqualTo(7);
+        }
+    }
+
+    @Test
+    public void testTypedResponse() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            AsyncWsProtocol protocol = target.getAsyncProtocol();
+            EvaluateResponse response = protocol.getRuntime().evaluate(EvaluateRequest.builder()
+                .expression("1 + 1")
+                .build())
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+            assertThat(response.getResult().getValue()).isEqualTo(2);
+            assertThat(server.getLastParams("Runtime.evaluate").get("expression").asText()).isEqualTo("1 + 1");
+            assertThat(protocol).isSameAs(target.getAsyncProtocol());
+        }
+    }
+
+    @Test
+    public void testCallOptions() throws Exception {
+        server.setUnanswered("Runtime.evaluate");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CompletableFuture<EvaluateResponse> response = target.getAsyncProtocol(CallOptions.builder()
+                .timeoutMillis(100)
+                .build())
+                .getRuntime()
+                .evaluate(EvaluateRequest.builder()
+                    .expression("1 + 1")
+                    .build())
+                .toCompletableFuture();
+            assertThatThrownBy(() -> response.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("Timeout when running Runtime.evaluate");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class Base64ChannelWriterTest {
+
+    @Test
+    public void testDecodesAcrossBufferBoundaries() throws Exception {
+        byte[] bytes = new byte[10_001];
+        new Random(0).nextBytes(bytes);
+        String base64 = Base64.getEncoder().encodeToString(bytes);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64ChannelWriter writer = new Base64ChannelWriter(Channels.newChannel(out), 7);
+        for (int i = 0; i < base64.length(); i += 52)
+            writer.write(base64.substring(i, Math.min(base64.length(), i + 52)));
+        writer.flush();
+
+        assertThat(out.toByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    public void testDecodesSeparatelyPaddedChunks() throws Exception {
+        byte[] bytes = new byte[10_000];
+        new Random(0).nextBytes(bytes);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64ChannelWriter writer = new Base64ChannelWriter(Channels.newChannel(out), 64);
+        // chunk sizes that are not multiples of 3, so each encoded chunk ends in padding
+        int[] chunkSizes = { 1000, 1001, 998, 2000 };
+        for (int offset = 0, i = 0; offset < bytes.length; i++) {
+            int length = Math.min(chunkSizes[i % chunkSizes.length], bytes.length - offset);
+            writer.write(Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, offset, offset + length)));
+            offset += length;
+        }
+        writer.writeRaw(new byte[] { 1, 2 });
+        writer.write("AwQ=");
+        writer.flush();
+
+        byte[] expected = Arrays.copyOf(bytes, bytes.length + 4);
+        expected[bytes.length] = 1;
+        expected[bytes.length + 1] = 2;
+        expected[bytes.length + 2] = 3;
+        expected[bytes.length + 3] = 4;
+        assertThat(out.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testRejectsInvalidPadding() throws Exception {
+        Base64ChannelWriter writer = new Base64ChannelWriter(Channels.newChannel(new ByteArrayOutputStream()), 16);
+        assertThatThrownBy(() -> writer.write("SGVsbG8==")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.write("SGVs=bG8")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.write("SGVsb")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testIgnoresWhitespace() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64ChannelWriter writer = new Base64ChannelWriter(Channels.newChannel(out), 16);
+        writer.write("SGVs\nbG8=");
+        writer.flush();
+
+        assertThat(out.toString("UTF-8")).isEqualTo("Hello");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public final class CallOptionsTest {
+
+    @Test
+    public void testTimeoutByDomain() {
+        Map<String, Long> timeouts = new HashMap<>();
+        timeouts.put("Page", 30_000L);
+        timeouts.put("Page.printToPDF", 120_000L);
+        WebSocketOptions options = WebSocketOptions.builder()
+            .timeoutMillis(5_000)
+            .timeoutMillisByDomain(timeouts)
+            .build();
+        assertThat(CallOptions.defaults().getTimeoutMillis()).isEqualTo(CallOptions.DEFAULT_TIMEOUT);
+        assertThat(CallOptions.defaults().getTimeoutMillis("Runtime.evaluate", options)).isEqualTo(5_000);
+        assertThat(CallOptions.defaults().getTimeoutMillis("Page.navigate", options)).isEqualTo(30_000);
+        assertThat(CallOptions.defaults().getTimeoutMillis("Page.printToPDF", options)).isEqualTo(120_000);
+
+        CallOptions callOptions = CallOptions.builder()
+            .timeoutMillis(1_000)
+            .build();
+        assertThat(callOptions.getTimeoutMillis("Page.printToPDF", options)).isEqualTo(1_000);
+    }
+
+    @Test
+    public void testDeadline() {
+        WebSocketOptions options = WebSocketOptions.defaults();
+        CallOptions callOptions = CallOptions.builder()
+            .deadline(Deadline.after(500))
+            .build();
+        assertThat(callOptions.getTimeoutMillis("Runtime.evaluate", options)).isBetween(1L, 500L);
+
+        CallOptions expired = CallOptions.builder()
+            .deadline(Deadline.after(-1))
+            .build();
+        assertThat(expired.getDeadline().isExpired()).isTrue();
+        assertThat(expired.getTimeoutMillis("Runtime.evaluate", options)).isEqualTo(0);
+    }
+
+    @Test
+    public void testCancellationToken() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.onCancel(calls::incrementAndGet);
+        token.onCancel(calls::incrementAndGet).close();
+        token.cancel();
+        token.cancel();
+        assertThat(token.isCancelled()).isTrue();
+        assertThat(calls.get()).isEqualTo(1);
+
+        token.onCancel(calls::incrementAndGet);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ChromeJClusterTest {
+
+    private final List<FakeChromeServer> servers = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+    private final List<ConnectedTarget> tabs = new ArrayList<>();
+
+    @Before
+    public void before() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            FakeChromeServer server = new FakeChromeServer();
+            servers.add(server);
+            urls.add(server.getUrl());
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        for (ConnectedTarget tab : tabs)
+            tab.close();
+        for (FakeChromeServer server : servers)
+            server.close();
+    }
+
+    @Test
+    public void testSpreadsTabsEvenly() throws Exception {
+        try (ChromeJCluster cluster = new ChromeJCluster(urls, ChromeJClusterOptions.defaults())) {
+            for (int i = 0; i < 6; i++)
+                tabs.add(cluster.newTab());
+            for (FakeChromeServer server : servers)
+                assertThat(targetCount(server)).isEqualTo(2);
+            assertThat(cluster.getMetrics()).extracting(ClusterMemberMetrics::getOpenTargets).containsExactly(2, 2, 2);
+        }
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        try (ChromeJCluster cluster = new ChromeJCluster(urls, ChromeJClusterOptions.defaults())) {
+            cluster.drain(urls.get(0));
+            for (int i = 0; i < 4; i++)
+                tabs.add(cluster.newTab());
+            assertThat(targetCount(servers.get(0))).isZero();
+            assertThat(cluster.getMetrics().get(0).isDraining()).isTrue();
+
+            cluster.resume(urls.get(0));
+            tabs.add(cluster.newTab());
+            assertThat(targetCount(servers.get(0))).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSkipsFailedBrowser() throws Exception {
+        try (ChromeJCluster cluster = new ChromeJCluster(urls, ChromeJClusterOptions.builder()
+            .healthCheckIntervalMillis(60_000)
+            .build())) {
+            servers.get(0).close();
+            for (int i = 0; i < 4; i++)
+                tabs.add(cluster.newTab());
+            assertThat(targetCount(servers.get(1))).isEqualTo(2);
+            assertThat(targetCount(servers.get(2))).isEqualTo(2);
+            assertThat(cluster.getMetrics().get(0).isHealthy()).isFalse();
+        }
+    }
+
+    private static int targetCount(FakeChromeServer server) {
+        return ChromeJ.create(server.getUrl()).getHttpProtocol().getTargets().size();
+    }
+}
@@ -25,6 +25,30 @@ public final class ChromeJTest {
         }
     }
 
+    @Test
+    public void testNavigateAndWait() throws Exception {
+        try (ConnectedTarget target = ChromeJ.create().newTab()) {
+            target.navigateAndWait("data:text/html,Hello%2C%20World!", LoadCondition.load(), 10_000);
+            assertThat(target.getOuterHtml()).isEqualTo("<html><head></head><body>Hello, World!</body></html>");
+            target.navigateAndWait("data:text/html,<p id=a>A</p>", LoadCondition.javascript("document.getElementById('a')"), 10_000);
+            assertThat(target.evaluate("document.getElementById('a').textContent")).isEqualTo("A");
+            target.closeTab();
+        }
+    }
+
+    @Test
+    public void testFlatSessions() throws Exception {
+        try (ConnectedBrowser browser = ChromeJ.create().getBrowser()) {
+            try (ConnectedTarget first = browser.newTab(); ConnectedTarget second = browser.newTab()) {
+                assertThat(first.getSessionId()).isNotEqualTo(second.getSessionId());
+                assertThat(first.evaluate("1 + 1")).isEqualTo(2);
+                assertThat(second.evaluate("2 + 2")).isEqualTo(4);
+                first.closeTab();
+                second.closeTab();
+            }
+        }
+    }
+
     @Test
     public void testEvaluate() throws Exception {
         try (ConnectedTarget target = ChromeJ.create().newTab()) {
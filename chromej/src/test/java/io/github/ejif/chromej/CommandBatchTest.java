@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CommandBatchTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Test.first", "{\"value\":1}");
+        server.setResult("Test.second", "{\"value\":2}");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testResultsInOrder() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CommandBatch batch = target.batch();
+            CompletableFuture<Map> first = batch.add("Test.first", null, Map.class);
+            CompletableFuture<Map> second = batch.add("Test.second", null, Map.class);
+            List<Object> results = batch.execute();
+            assertThat(results).hasSize(2);
+            assertThat(((Map<?, ?>) results.get(0)).get("value")).isEqualTo(1);
+            assertThat(((Map<?, ?>) results.get(1)).get("value")).isEqualTo(2);
+            assertThat(first.join().get("value")).isEqualTo(1);
+            assertThat(second.join().get("value")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testLargerThanInFlightLimit() throws Exception {
+        ChromeJ limited = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .maxInFlightCommands(4)
+            .timeoutMillis(10_000)
+            .build());
+        try (ConnectedTarget target = limited.newTab()) {
+            CommandBatch batch = target.batch();
+            for (int i = 0; i < 50; i++)
+                batch.add(i % 2 == 0 ? "Test.first" : "Test.second", null, Map.class);
+            List<Object> results = batch.execute();
+            assertThat(results).hasSize(50);
+            assertThat(((Map<?, ?>) results.get(49)).get("value")).isEqualTo(2);
+            assertThat(server.getCommandsReceived("Test.first") + server.getCommandsReceived("Test.second")).isEqualTo(50);
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        server.setUnanswered("Test.hang");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CommandBatch batch = target.batch(CallOptions.builder()
+                .timeoutMillis(100)
+                .build());
+            CompletableFuture<Map> first = batch.add("Test.first", null, Map.class);
+            batch.add("Test.hang", null, Map.class);
+            assertThatThrownBy(batch::execute).hasMessageContaining("Timeout when running Test.hang");
+            assertThat(first.join().get("value")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testExecuteOnce() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CommandBatch batch = target.batch();
+            batch.add("Test.first", null, Map.class);
+            batch.execute();
+            assertThatThrownBy(batch::execute).isInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> batch.add("Test.first", null, Map.class)).isInstanceOf(IllegalStateException.class);
+        }
+    }
+}
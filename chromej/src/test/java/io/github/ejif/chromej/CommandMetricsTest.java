@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public final class CommandMetricsTest {
+
+    @Test
+    public void testCounters() {
+        CommandMetrics metrics = new CommandMetrics();
+        metrics.commandStarted("Runtime.evaluate");
+        metrics.commandStarted("Runtime.evaluate");
+        metrics.commandStarted("Page.printToPDF");
+        metrics.commandSent("Runtime.evaluate", 100);
+        metrics.commandSucceeded("Runtime.evaluate", TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.commandTimedOut("Page.printToPDF", TimeUnit.SECONDS.toNanos(10));
+        metrics.messageReceived(50);
+        metrics.eventQueued("Page.loadEventFired", 3);
+        metrics.eventQueued("Page.loadEventFired", 1);
+
+        assertThat(metrics.getCommandsStarted()).isEqualTo(3);
+        assertThat(metrics.getCommandsSucceeded()).isEqualTo(1);
+        assertThat(metrics.getCommandsTimedOut()).isEqualTo(1);
+        assertThat(metrics.getInFlightCommands()).isEqualTo(1);
+        assertThat(metrics.getCharactersSent()).isEqualTo(100);
+        assertThat(metrics.getCharactersReceived()).isEqualTo(50);
+        assertThat(metrics.getEventQueueDepth()).isEqualTo(1);
+        assertThat(metrics.getMaxEventQueueDepth()).isEqualTo(3);
+        assertThat(metrics.getErrorCounts()).containsEntry("Page.printToPDF", 1L).containsEntry("Runtime.evaluate", 0L);
+        assertThat(metrics.getLatencyHistogram("Runtime.evaluate").getTotalCount()).isEqualTo(1);
+
+        metrics.reset();
+        assertThat(metrics.getInFlightCommands()).isEqualTo(1);
+        assertThat(metrics.getCommandsSucceeded()).isEqualTo(0);
+        assertThat(metrics.getMethods()).isEmpty();
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        CommandMetrics metrics = new CommandMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.commandStarted("DOM.getDocument");
+            metrics.commandSucceeded("DOM.getDocument", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertThat(metrics.getLatencyMicrosAtPercentile(99).get("DOM.getDocument")).isBetween(98_000L, 100_000L);
+    }
+}
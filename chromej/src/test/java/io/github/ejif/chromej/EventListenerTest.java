@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.page.LifecycleEventEvent;
+import io.github.ejif.chromej.protocol.page.NavigateRequest;
+
+public final class EventListenerTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+    private ExecutorService eventExecutor;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}");
+        eventExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "test-events"));
+        chromeJ = ChromeJ.create(server.getUrl()).withWebSocketOptions(WebSocketOptions.builder()
+            .eventExecutor(eventExecutor)
+            .build());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+        eventExecutor.shutdownNow();
+    }
+
+    private static void navigate(ConnectedTarget target) {
+        target.getProtocol().getPage().navigate(NavigateRequest.builder()
+            .url("about:blank")
+            .build());
+    }
+
+    @Test
+    public void testListenersRunInOrderOnEventExecutor() throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            Subscription subscription = target.on(LifecycleEventEvent.TYPE,
+                event -> received.add(event.getName() + " on " + Thread.currentThread().getName()));
+            navigate(target);
+            // the fake server sends these lifecycle events after each navigation
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("init on test-events");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("DOMContentLoaded on test-events");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("load on test-events");
+
+            subscription.close();
+            navigate(target);
+            assertThat(received.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        }
+    }
+
+    @Test
+    public void testSlowListenerDoesNotBlockResponses() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            target.on(LifecycleEventEvent.TYPE, event -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(event.getName());
+            });
+            navigate(target);
+            assertThat(blocked.await(10, TimeUnit.SECONDS)).isTrue();
+            // responses are read while the listener is still busy with the first event
+            assertThat(target.evaluate("1 + 1")).isEqualTo(2);
+            assertThat(received).isEmpty();
+            release.countDown();
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("init");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("DOMContentLoaded");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("load");
+        }
+    }
+
+    @Test
+    public void testEventsRoutedBySession() throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        try (ConnectedBrowser browser = chromeJ.getBrowser();
+                ConnectedTarget first = browser.newTab();
+                ConnectedTarget second = browser.newTab()) {
+            browser.on(LifecycleEventEvent.TYPE, event -> received.add("browser " + event.getName()));
+            first.on(LifecycleEventEvent.TYPE, event -> received.add("first " + event.getName()));
+            second.on(LifecycleEventEvent.TYPE, event -> received.add("second " + event.getName()));
+
+            navigate(first);
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("first init");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("first DOMContentLoaded");
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("first load");
+
+            // events without a session ID belong to the browser connection itself
+            server.broadcastEvent("Page.lifecycleEvent", FakeChromeServer.lifecycleEvent("loader", "load"));
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("browser load");
+            assertThat(received.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        }
+    }
+}
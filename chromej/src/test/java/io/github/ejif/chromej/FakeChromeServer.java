@@ -0,0 +1,578 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An in-process stand-in for Chrome's remote debugging endpoint, used by tests and benchmarks that
+ * must run without a browser. It serves the <code>/json</code> HTTP endpoints and accepts WebSocket
+ * connections to any <code>/devtools/</code> path. Each command is answered with the canned result
+ * registered for its method (an empty object by default), or the error registered for it, followed
+ * by any events registered for it. Flat-mode session IDs are echoed back, so
+ * {@link ConnectedBrowser#attachToTarget(String)} works as it does against Chrome.
+ */
+public final class FakeChromeServer implements AutoCloseable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("fake-chrome"));
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+    private final Map<String, String> errors = new ConcurrentHashMap<>();
+    private final Set<String> echoed = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<String[]>> eventsBefore = new ConcurrentHashMap<>();
+    private final Map<String, List<String[]>> eventsAfter = new ConcurrentHashMap<>();
+    private final Set<String> unanswered = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> targetUrls = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger commandsReceived = new AtomicInteger();
+    private final Map<String, AtomicInteger> commandsReceivedByMethod = new ConcurrentHashMap<>();
+    private final Map<String, JsonNode> lastParamsByMethod = new ConcurrentHashMap<>();
+
+    private volatile int fragmentSize;
+    private volatile boolean resultBeforeId;
+    private volatile boolean closed;
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public FakeChromeServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        setResult("Page.navigate", "{\"frameId\":\"main\",\"loaderId\":\"loader\"}");
+        addEventAfter("Page.navigate", "Page.lifecycleEvent", lifecycleEvent("loader", "init"));
+        addEventAfter("Page.navigate", "Page.lifecycleEvent", lifecycleEvent("loader", "DOMContentLoaded"));
+        addEventAfter("Page.navigate", "Page.lifecycleEvent", lifecycleEvent("loader", "load"));
+        executor.execute(this::accept);
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The HTTP URL to pass to {@link ChromeJ#create(String)}
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Sets the result returned for every command with the given method.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param resultJson
+     *            The result, as a JSON object
+     */
+    public void setResult(String method, String resultJson) {
+        results.put(method, resultJson);
+    }
+
+    /**
+     * Answers every command with the given method with an error instead of a result.
+     *
+     * @param method
+     *            The fully qualified command name
+     * @param errorJson
+     *            The error, as a JSON object with a <code>code</code> and <code>message</code>
+     */
+    public void setError(String method, String errorJson) {
+        errors.put(method, errorJson);
+    }
+
+    /**
+     * Answers every command with the given method with its own params (an empty object if it has
+     * none), so that each response can be matched to the request it answers.
+     *
+     * @param method
+     *            The fully qualified command name
+     */
+    public void setEchoParams(String method) {
+        echoed.add(method);
+    }
+
+    /**
+     * Never responds to commands with the given method, which keeps them in flight until they time
+     * out or are cancelled.
+     *
+     * @param method
+     *            The fully qualified command name
+     */
+    public void setUnanswered(String method) {
+        unanswered.add(method);
+    }
+
+    /**
+     * Splits every message longer than the given number of bytes into fragments of at most that
+     * size, sent as a text frame followed by continuation frames. Fragments may end in the middle
+     * of a multi-byte character.
+     *
+     * @param fragmentSize
+     *            The largest fragment, in bytes, or 0 to send each message in a single frame
+     */
+    public void setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Writes the <code>result</code> of each response before its <code>id</code>. Chrome writes the
+     * ID first, but clients must not depend on the order of fields.
+     *
+     * @param resultBeforeId
+     *            Whether to write the result first
+     */
+    public void setResultBeforeId(boolean resultBeforeId) {
+        this.resultBeforeId = resultBeforeId;
+    }
+
+    /**
+     * Builds the params of a <code>Page.lifecycleEvent</code> event of the main frame.
+     *
+     * @param loaderId
+     *            The loader of the document the event belongs to
+     * @param name
+     *            The event name, e.g. <code>load</code>
+     * @return The params, as a JSON object
+     */
+    public static String lifecycleEvent(String loaderId, String name) {
+        return "{\"frameId\":\"main\",\"loaderId\":\"" + loaderId + "\",\"name\":\"" + name + "\",\"timestamp\":0}";
+    }
+
+    /**
+     * Sends an event before each response to the given command, on the same session.
+     *
+     * @param commandMethod
+     *            The fully qualified command name
+     * @param eventMethod
+     *            The event name
+     * @param paramsJson
+     *            The event params, as a JSON object
+     */
+    public void addEventBefore(String commandMethod, String eventMethod, String paramsJson) {
+        eventsBefore.computeIfAbsent(commandMethod, m -> new CopyOnWriteArrayList<>())
+            .add(new String[] { eventMethod, paramsJson });
+    }
+
+    /**
+     * Sends an event after each response to the given command, on the same session.
+     *
+     * @param commandMethod
+     *            The fully qualified command name
+     * @param eventMethod
+     *            The event name
+     * @param paramsJson
+     *            The event params, as a JSON object
+     */
+    public void addEventAfter(String commandMethod, String eventMethod, String paramsJson) {
+        eventsAfter.computeIfAbsent(commandMethod, m -> new CopyOnWriteArrayList<>())
+            .add(new String[] { eventMethod, paramsJson });
+    }
+
+    /**
+     * Sends an event without a session ID to every open connection.
+     *
+     * @param eventMethod
+     *            The event name
+     * @param paramsJson
+     *            The event params, as a JSON object
+     */
+    public void broadcastEvent(String eventMethod, String paramsJson) {
+        for (Connection connection : connections)
+            connection.sendEvent(eventMethod, paramsJson, null);
+    }
+
+    /**
+     * @return The number of open targets
+     */
+    public int getTargetCount() {
+        return targetUrls.size();
+    }
+
+    /**
+     * @return The number of open WebSocket connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return The number of commands received over all connections
+     */
+    public int getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    /**
+     * @param method
+     *            The fully qualified command name
+     * @return The number of commands with the given method received over all connections
+     */
+    public int getCommandsReceived(String method) {
+        AtomicInteger count = commandsReceivedByMethod.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param method
+     *            The fully qualified command name
+     * @return The params of the last command with the given method, or null if none was received or
+     *         it had no params
+     */
+    public JsonNode getLastParams(String method) {
+        return lastParamsByMethod.get(method);
+    }
+
+    /**
+     * Abruptly closes every open WebSocket connection, without a close frame.
+     */
+    public void dropConnections() {
+        for (Connection connection : connections)
+            connection.closeSocket();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        dropConnections();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!closed)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                socket.close();
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0)
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            String path = requestLine.split(" ")[1];
+            if ("websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                upgrade(socket, in, out, headers.get("sec-websocket-key"));
+            } else {
+                respondHttp(out, path);
+                socket.close();
+            }
+        } catch (IOException e) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void respondHttp(OutputStream out, String path) throws IOException {
+        String body;
+        int status = 200;
+        if (path.equals("/json/version")) {
+            Map<String, String> browser = new LinkedHashMap<>();
+            browser.put("Browser", "FakeChrome/1.0");
+            browser.put("Protocol-Version", "1.3");
+            browser.put("User-Agent", "FakeChrome");
+            browser.put("V8-Version", "0");
+            browser.put("WebKit-Version", "0");
+            browser.put("webSocketDebuggerUrl", webSocketUrl("browser", "browser"));
+            body = mapper.writeValueAsString(browser);
+        } else if (path.equals("/json/list") || path.equals("/json")) {
+            List<Map<String, String>> targets = new ArrayList<>();
+            synchronized (targetUrls) {
+                targetUrls.forEach((id, url) -> targets.add(target(id, url)));
+            }
+            body = mapper.writeValueAsString(targets);
+        } else if (path.startsWith("/json/new")) {
+            String id = "target-" + nextId.incrementAndGet();
+            targetUrls.put(id, "about:blank");
+            body = mapper.writeValueAsString(target(id, "about:blank"));
+        } else if (path.startsWith("/json/close/")) {
+            body = targetUrls.remove(path.substring("/json/close/".length())) != null ? "Target is closing" : "No such target id";
+        } else {
+            status = 404;
+            body = "Not found";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format("HTTP/1.1 %s %s\r\nContent-Type: application/json\r\nContent-Length: %s\r\nConnection: close\r\n\r\n",
+            status, status == 200 ? "OK" : "Not Found", bytes.length).getBytes(StandardCharsets.ISO_8859_1));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private Map<String, String> target(String id, String url) {
+        Map<String, String> target = new LinkedHashMap<>();
+        target.put("description", "");
+        target.put("devtoolsFrontendUrl", "");
+        target.put("id", id);
+        target.put("title", url);
+        target.put("type", "page");
+        target.put("url", url);
+        target.put("webSocketDebuggerUrl", webSocketUrl("page", id));
+        return target;
+    }
+
+    private String webSocketUrl(String type, String id) {
+        return "ws://127.0.0.1:" + getPort() + "/devtools/" + type + "/" + id;
+    }
+
+    private void upgrade(Socket socket, DataInputStream in, OutputStream out, String key) throws IOException {
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        Connection connection = new Connection(socket, out);
+        connections.add(connection);
+        try {
+            String message;
+            while ((message = connection.readMessage(in)) != null)
+                connection.handleCommand(message);
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            connections.remove(connection);
+            closeQuietly(socket);
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n')
+                return line.toString();
+            if (b != '\r')
+                line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+
+        Connection(Socket socket, OutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        /**
+         * Reads the next text message, answering pings and close frames along the way.
+         *
+         * @return The message, or null if the client closed the connection
+         */
+        String readMessage(DataInputStream in) throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                int first = in.read();
+                if (first == -1)
+                    return null;
+                int second = in.readUnsignedByte();
+                boolean fin = (first & 0x80) != 0;
+                int opcode = first & 0x0F;
+                long length = second & 0x7F;
+                if (length == 126)
+                    length = in.readUnsignedShort();
+                else if (length == 127)
+                    length = in.readLong();
+                byte[] mask = null;
+                if ((second & 0x80) != 0) {
+                    mask = new byte[4];
+                    in.readFully(mask);
+                }
+                if (length > Integer.MAX_VALUE)
+                    throw new EOFException("Frame too large");
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                if (mask != null)
+                    for (int i = 0; i < payload.length; i++)
+                        payload[i] ^= mask[i & 3];
+
+                switch (opcode) {
+                    case 0x8:
+                        writeFrame(0x8, payload, 0, payload.length, true);
+                        return null;
+                    case 0x9:
+                        writeFrame(0xA, payload, 0, payload.length, true);
+                        break;
+                    case 0xA:
+                        break;
+                    default:
+                        message.write(payload);
+                        if (fin)
+                            return new String(message.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        void handleCommand(String message) throws IOException {
+            commandsReceived.incrementAndGet();
+            JsonNode request = mapper.readTree(message);
+            int id = request.get("id").asInt();
+            String method = request.get("method").asText();
+            commandsReceivedByMethod.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+            if (request.hasNonNull("params"))
+                lastParamsByMethod.put(method, request.get("params"));
+            if (unanswered.contains(method))
+                return;
+            String sessionId = request.hasNonNull("sessionId") ? request.get("sessionId").asText() : null;
+
+            String result;
+            if (method.equals("Target.attachToTarget"))
+                result = "{\"sessionId\":\"session-" + nextId.incrementAndGet() + "\"}";
+            else if (method.equals("Target.createTarget")) {
+                String targetId = "target-" + nextId.incrementAndGet();
+                targetUrls.put(targetId, "about:blank");
+                result = "{\"targetId\":\"" + targetId + "\"}";
+            } else if (method.equals("Target.closeTarget"))
+                result = "{\"success\":" + (targetUrls.remove(request.get("params").get("targetId").asText()) != null) + "}";
+            else if (method.equals("Target.getTargets"))
+                result = getTargets();
+            else if (echoed.contains(method))
+                result = request.hasNonNull("params") ? mapper.writeValueAsString(request.get("params")) : "{}";
+            else
+                result = results.getOrDefault(method, "{}");
+
+            for (String[] event : eventsBefore.getOrDefault(method, Collections.emptyList()))
+                sendEvent(event[0], event[1], sessionId);
+            String error = errors.get(method);
+            if (error != null)
+                send("{\"id\":" + id + ",\"error\":" + error + sessionSuffix(sessionId));
+            else if (resultBeforeId)
+                send("{\"result\":" + result + ",\"id\":" + id + sessionSuffix(sessionId));
+            else
+                send("{\"id\":" + id + ",\"result\":" + result + sessionSuffix(sessionId));
+            for (String[] event : eventsAfter.getOrDefault(method, Collections.emptyList()))
+                sendEvent(event[0], event[1], sessionId);
+        }
+
+        private String getTargets() throws IOException {
+            List<Map<String, Object>> targetInfos = new ArrayList<>();
+            synchronized (targetUrls) {
+                targetUrls.forEach((id, url) -> {
+                    Map<String, Object> targetInfo = new LinkedHashMap<>();
+                    targetInfo.put("targetId", id);
+                    targetInfo.put("type", "page");
+                    targetInfo.put("title", url);
+                    targetInfo.put("url", url);
+                    targetInfo.put("attached", false);
+                    targetInfos.add(targetInfo);
+                });
+            }
+            return mapper.writeValueAsString(Collections.singletonMap("targetInfos", targetInfos));
+        }
+
+        void sendEvent(String method, String paramsJson, String sessionId) {
+            try {
+                send("{\"method\":\"" + method + "\",\"params\":" + paramsJson + sessionSuffix(sessionId));
+            } catch (IOException e) {
+                closeSocket();
+            }
+        }
+
+        private String sessionSuffix(String sessionId) throws IOException {
+            return sessionId == null ? "}" : ",\"sessionId\":" + mapper.writeValueAsString(sessionId) + "}";
+        }
+
+        private synchronized void send(String message) throws IOException {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            int size = fragmentSize > 0 ? fragmentSize : payload.length;
+            int offset = 0;
+            do {
+                int length = Math.min(size, payload.length - offset);
+                writeFrame(offset == 0 ? 0x1 : 0x0, payload, offset, length, offset + length == payload.length);
+                offset += length;
+            } while (offset < payload.length);
+        }
+
+        private synchronized void writeFrame(int opcode, byte[] payload, int offset, int length, boolean fin) throws IOException {
+            out.write((fin ? 0x80 : 0) | opcode);
+            if (length < 126) {
+                out.write(length);
+            } else if (length < 65536) {
+                out.write(126);
+                out.write(length >>> 8);
+                out.write(length);
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    out.write((int) ((long) length >>> shift));
+            }
+            out.write(payload, offset, length);
+            out.flush();
+        }
+
+        void closeSocket() {
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+public final class FakeChromeServerTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testEvaluate() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertThat(target.evaluate("1 + 1")).isEqualTo(2);
+            target.navigateAndWait("about:blank", LoadCondition.load(), 10_000);
+        }
+    }
+
+    @Test
+    public void testLoadIgnoresPreviousDocument() throws Exception {
+        server.setResult("Page.navigate", "{\"frameId\":\"main\",\"loaderId\":\"next\"}");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            // the default events belong to another document
+            assertThatThrownBy(() -> target.navigateAndWait("about:blank", LoadCondition.load(), 500))
+                .hasMessageContaining("Timeout when waiting for about:blank to satisfy load");
+
+            // events received before the navigation's loader is known are matched once it is
+            server.addEventBefore("Page.navigate", "Page.lifecycleEvent", FakeChromeServer.lifecycleEvent("next", "load"));
+            target.navigateAndWait("about:blank", LoadCondition.load(), 10_000);
+            assertThat(server.getCommandsReceived("Page.setLifecycleEventsEnabled")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testJavascriptWaitsForNewDocument() throws Exception {
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"boolean\",\"value\":true}}");
+        server.setResult("Page.navigate", "{\"frameId\":\"main\",\"loaderId\":\"next\"}");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            // the previous document satisfies the predicate, but the new one is never committed
+            assertThatThrownBy(() -> target.navigateAndWait("about:blank", LoadCondition.javascript("true"), 500))
+                .hasMessageContaining("Timeout when waiting for about:blank");
+            assertThat(server.getCommandsReceived("Runtime.evaluate")).isZero();
+
+            server.addEventAfter("Page.navigate", "Page.lifecycleEvent", FakeChromeServer.lifecycleEvent("next", "init"));
+            target.navigateAndWait("about:blank", LoadCondition.javascript("true"), 10_000);
+            assertThat(server.getCommandsReceived("Runtime.evaluate")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testFragmentedMessages() throws Exception {
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"string\",\"value\":\"caf\u00e9 \ud83d\ude00\"}}");
+        server.setFragmentSize(3);
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertThat(target.evaluate("s")).isEqualTo("caf\u00e9 \ud83d\ude00");
+            target.navigateAndWait("about:blank", LoadCondition.load(), 10_000);
+        }
+    }
+
+    @Test
+    public void testMessageTooLarge() throws Exception {
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"string\",\"value\":\"" + String.join("", Collections.nCopies(100, "x")) + "\"}}");
+        ChromeJ limited = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .maxMessageSize(64)
+            .build());
+        for (int fragmentSize : new int[] { 0, 16 }) {
+            server.setFragmentSize(fragmentSize);
+            try (ConnectedTarget target = limited.newTab()) {
+                assertThatThrownBy(() -> target.evaluate("s")).hasMessageContaining("WebSocket closed");
+                assertThat(target.isOpen()).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CommandBatch batch = target.batch();
+            for (int i = 0; i < 10; i++)
+                batch.add("Runtime.evaluate", null, EvaluateResponse.class);
+            List<Object> results = batch.execute();
+            assertThat(results).hasSize(10);
+            assertThat(((EvaluateResponse) results.get(9)).getResult().getValue()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testInFlightLimitQueuesWithoutBlocking() throws Exception {
+        server.setUnanswered("Test.hang");
+        ChromeJ limited = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .maxInFlightCommands(1)
+            .build());
+        try (ConnectedTarget target = limited.newTab()) {
+            CompletableFuture<Object> hanging = target.executeAsync("Test.hang", null, Object.class);
+            CompletableFuture<EvaluateResponse> queued = target.executeAsync("Runtime.evaluate", null, EvaluateResponse.class);
+            assertThat(queued).isNotDone();
+            hanging.cancel(false);
+            assertThat(queued.get(10, TimeUnit.SECONDS).getResult().getValue()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testCancelWhileQueued() throws Exception {
+        server.setUnanswered("Test.hang");
+        ChromeJ limited = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .maxInFlightCommands(1)
+            .build());
+        try (ConnectedTarget target = limited.newTab()) {
+            CompletableFuture<Object> hanging = target.executeAsync("Test.hang", null, Object.class);
+            CancellationToken token = new CancellationToken();
+            CompletableFuture<EvaluateResponse> queued = target.executeAsync("Runtime.evaluate", null, EvaluateResponse.class,
+                CallOptions.builder().cancellationToken(token).build());
+            token.cancel();
+            assertThatThrownBy(() -> queued.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CancellationException.class);
+
+            // a command whose token was cancelled up front does not queue at all
+            CompletableFuture<EvaluateResponse> cancelled = target.executeAsync("Runtime.evaluate", null, EvaluateResponse.class,
+                CallOptions.builder().cancellationToken(token).build());
+            assertThat(cancelled).isCompletedExceptionally();
+
+            hanging.cancel(false);
+            assertThat(target.evaluate("1 + 1")).isEqualTo(2);
+            assertThat(server.getCommandsReceived("Runtime.evaluate")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        ChromeJ reconnecting = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .reconnectPolicy(ReconnectPolicy.builder()
+                .initialBackoffMillis(10)
+                .build())
+            .build());
+        try (ConnectedTarget target = reconnecting.newTab()) {
+            target.getProtocol().getPage().enable();
+            String targetId = target.getTarget().getId();
+            server.dropConnections();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(target.isOpen() && server.getCommandsReceived("Page.enable") == 2)) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            assertThat(target.getTarget().getId()).isEqualTo(targetId);
+            assertThat(target.evaluate("1 + 1")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testReplacesMissingTarget() throws Exception {
+        ChromeJ reconnecting = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .reconnectPolicy(ReconnectPolicy.builder()
+                .initialBackoffMillis(10)
+                .build())
+            .build());
+        try (ConnectedTarget target = reconnecting.newTab()) {
+            String targetId = target.getTarget().getId();
+            chromeJ.getHttpProtocol().closeTab(targetId);
+            server.dropConnections();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(target.isOpen() && !target.getTarget().getId().equals(targetId))) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            assertThat(target.evaluate("1 + 1")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testGiveUpAfterMaxAttempts() throws Exception {
+        ChromeJ reconnecting = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .reconnectPolicy(ReconnectPolicy.builder()
+                .maxAttempts(2)
+                .initialBackoffMillis(100)
+                .build())
+            .build());
+        try (ConnectedTarget target = reconnecting.newTab()) {
+            server.close();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (target.isOpen()) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            // while reconnecting, commands fail at once instead of waiting for their timeout
+            CompletableFuture<Object> reconnectingResult = target.executeAsync("Runtime.evaluate", null, Object.class);
+            assertThat(reconnectingResult).isCompletedExceptionally();
+            assertThatThrownBy(reconnectingResult::join).hasMessageContaining("is reconnecting");
+
+            deadline = System.currentTimeMillis() + 30_000;
+            while (true) {
+                CompletableFuture<Object> result = target.executeAsync("Runtime.evaluate", null, Object.class);
+                assertThat(result).isCompletedExceptionally();
+                try {
+                    result.join();
+                } catch (RuntimeException e) {
+                    if (e.getMessage().contains("WebSocket closed"))
+                        break;
+                }
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(50);
+            }
+            assertThat(target.isOpen()).isFalse();
+        }
+    }
+
+    @Test
+    public void testFlatSessionsDetachedByReconnect() throws Exception {
+        ChromeJ reconnecting = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .reconnectPolicy(ReconnectPolicy.builder()
+                .initialBackoffMillis(10)
+                .build())
+            .build());
+        try (ConnectedBrowser browser = reconnecting.getBrowser()) {
+            ConnectedTarget detached = browser.newTab();
+            assertThat(detached.isOpen()).isTrue();
+            server.dropConnections();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(browser.isOpen() && server.getConnectionCount() == 1)) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            assertThat(detached.isOpen()).isFalse();
+            assertThatThrownBy(() -> detached.evaluate("1 + 1")).hasMessageContaining("is detached");
+            try (ConnectedTarget attached = browser.newTab()) {
+                assertThat(attached.evaluate("1 + 1")).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    public void testFlatSessions() throws Exception {
+        try (ConnectedBrowser browser = chromeJ.getBrowser()) {
+            try (ConnectedTarget first = browser.newTab(); ConnectedTarget second = browser.newTab()) {
+                assertThat(first.getSessionId()).isNotEqualTo(second.getSessionId());
+                assertThat(first.evaluate("1 + 1")).isEqualTo(2);
+                assertThat(server.getConnectionCount()).isEqualTo(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.AsyncWsProtocol;
+import io.github.ejif.chromej.protocol.WsProtocol;
+import io.github.ejif.chromej.protocol.dom.GetDocumentRequest;
+import io.github.ejif.chromej.protocol.runtime.EvaluateRequest;
+
+public final class GeneratedProtocolTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testDomainsCreatedOnce() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            WsProtocol protocol = target.getProtocol();
+            assertThat(target.getProtocol()).isSameAs(protocol);
+            assertThat(protocol.getRuntime()).isSameAs(protocol.getRuntime());
+            assertThat(protocol.getDOM()).isSameAs(protocol.getDOM());
+
+            AsyncWsProtocol asyncProtocol = target.getAsyncProtocol();
+            assertThat(target.getAsyncProtocol()).isSameAs(asyncProtocol);
+            assertThat(asyncProtocol.getRuntime()).isSameAs(asyncProtocol.getRuntime());
+
+            // a protocol with its own call options has its own domains
+            WsProtocol withOptions = target.getProtocol(CallOptions.defaults());
+            assertThat(withOptions.getRuntime()).isSameAs(withOptions.getRuntime());
+            assertThat(withOptions.getRuntime()).isNotSameAs(protocol.getRuntime());
+        }
+    }
+
+    @Test
+    public void testSendsCommandNames() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            WsProtocol protocol = target.getProtocol();
+            protocol.getPage().enable();
+            protocol.getDOM().getDocument(GetDocumentRequest.builder()
+                .depth(1)
+                .build());
+            assertThat(protocol.getRuntime().evaluate(EvaluateRequest.builder()
+                .expression("1 + 1")
+                .build())
+                .getResult()
+                .getValue()).isEqualTo(2);
+
+            assertThat(server.getCommandsReceived("Page.enable")).isEqualTo(1);
+            assertThat(server.getLastParams("Page.enable")).isNull();
+            assertThat(server.getCommandsReceived("DOM.getDocument")).isEqualTo(1);
+            assertThat(server.getLastParams("DOM.getDocument").get("depth").asInt()).isEqualTo(1);
+            assertThat(server.getCommandsReceived("Runtime.evaluate")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testCallOptions() throws Exception {
+        server.setUnanswered("Runtime.evaluate");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            WsProtocol protocol = target.getProtocol(CallOptions.builder()
+                .timeoutMillis(100)
+                .build());
+            assertThatThrownBy(() -> protocol.getRuntime().evaluate(EvaluateRequest.builder()
+                .expression("1 + 1")
+                .build()))
+                .hasMessageContaining("Timeout when running Runtime.evaluate");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+public final class MessageTokenizerTest {
+
+    private static final ObjectMapper mapper = WebSocketConnection.mapper;
+
+    @Test
+    public void testEveryFragmentSize() throws Exception {
+        String message = "{\"id\":12,\"result\":{\"data\":\"caf\\u00e9 \u00e9\ud83d\ude00\",\"n\":1.5,\"arr\":[true,null,{}]},\"sessionId\":\"S\"}";
+        Map<?, ?> expected = mapper.readValue(message, Map.class);
+        MessageTokenizer tokenizer = new MessageTokenizer(mapper);
+        for (int size = 1; size <= message.length(); size++) {
+            TokenBuffer tokens = null;
+            for (int i = 0; i < message.length(); i += size) {
+                int end = Math.min(message.length(), i + size);
+                assertThat(tokens).isNull();
+                tokens = tokenizer.feed(message.substring(i, end), end == message.length());
+            }
+            assertThat(mapper.readValue(tokens.asParser(), Map.class)).isEqualTo(expected);
+            assertThat(tokenizer.isStarted()).isFalse();
+            assertThat(tokenizer.length()).isZero();
+        }
+    }
+
+    @Test
+    public void testResetsAfterMalformedMessage() throws Exception {
+        MessageTokenizer tokenizer = new MessageTokenizer(mapper);
+        assertThat(tokenizer.feed("{\"id\":1,", false)).isNull();
+        assertThat(tokenizer.isStarted()).isTrue();
+        assertThatThrownBy(() -> tokenizer.feed("\"result\":", true)).isInstanceOf(IOException.class);
+        assertThat(tokenizer.isStarted()).isFalse();
+        assertThatThrownBy(() -> tokenizer.feed("{]", true)).isInstanceOf(IOException.class);
+
+        TokenBuffer tokens = tokenizer.feed("{\"id\":2}", true);
+        assertThat(mapper.readValue(tokens.asParser(), Map.class)).containsEntry("id", 2);
+    }
+}
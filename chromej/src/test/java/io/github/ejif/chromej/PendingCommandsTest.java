@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class PendingCommandsTest {
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        PendingCommands pending = new PendingCommands(4, command -> {});
+        PendingCommand command = new PendingCommand(7, "Runtime.evaluate", Object.class);
+        assertThat(pending.add(command)).isTrue();
+        assertThat(pending.size()).isEqualTo(1);
+        assertThat(pending.remove(7)).isSameAs(command);
+        assertThat(pending.remove(7)).isNull();
+        assertThat(pending.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testCollidingIds() throws Exception {
+        PendingCommands pending = new PendingCommands(4, command -> {});
+        PendingCommand first = new PendingCommand(1, "a", Object.class);
+        PendingCommand second = new PendingCommand(17, "b", Object.class);
+        PendingCommand third = new PendingCommand(Integer.MIN_VALUE + 1, "c", Object.class);
+        assertThat(pending.add(first)).isTrue();
+        assertThat(pending.add(second)).isTrue();
+        assertThat(pending.add(third)).isTrue();
+        assertThat(pending.remove(first.id)).isSameAs(first);
+        assertThat(pending.remove(third.id)).isSameAs(third);
+        assertThat(pending.remove(second.id)).isSameAs(second);
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        PendingCommands pending = new PendingCommands(4, command -> {});
+        pending.add(new PendingCommand(1, "a", Object.class));
+        pending.add(new PendingCommand(17, "b", Object.class));
+        assertThat(pending.contains(1)).isTrue();
+        assertThat(pending.contains(17)).isTrue();
+        assertThat(pending.contains(33)).isFalse();
+        pending.remove(1);
+        assertThat(pending.contains(1)).isFalse();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        List<PendingCommand> admitted = new ArrayList<>();
+        PendingCommands pending = new PendingCommands(2, admitted::add);
+        PendingCommand third = new PendingCommand(2, "c", Object.class);
+        PendingCommand fourth = new PendingCommand(3, "d", Object.class);
+        assertThat(pending.add(new PendingCommand(0, "a", Object.class))).isTrue();
+        assertThat(pending.add(new PendingCommand(1, "b", Object.class))).isTrue();
+        assertThat(pending.add(third)).isFalse();
+        assertThat(pending.add(fourth)).isFalse();
+        assertThat(pending.waitingSize()).isEqualTo(2);
+        assertThat(pending.contains(2)).isFalse();
+
+        pending.remove(0);
+        assertThat(admitted).containsExactly(third);
+        assertThat(pending.contains(2)).isTrue();
+        pending.remove(1);
+        assertThat(admitted).containsExactly(third, fourth);
+        assertThat(pending.waitingSize()).isEqualTo(0);
+        assertThat(pending.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRemoveWaiting() throws Exception {
+        List<PendingCommand> admitted = new ArrayList<>();
+        PendingCommands pending = new PendingCommands(1, admitted::add);
+        PendingCommand waiting = new PendingCommand(1, "b", Object.class);
+        pending.add(new PendingCommand(0, "a", Object.class));
+        pending.add(waiting);
+        assertThat(pending.removeWaiting(waiting)).isTrue();
+        assertThat(pending.removeWaiting(waiting)).isFalse();
+        pending.remove(0);
+        assertThat(admitted).isEmpty();
+        assertThat(pending.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRemoveAll() throws Exception {
+        PendingCommands pending = new PendingCommands(8, command -> {});
+        for (int id = 0; id < 8; id++)
+            pending.add(new PendingCommand(id, "m", Object.class));
+        pending.add(new PendingCommand(8, "m", Object.class));
+        assertThat(pending.removeAll()).hasSize(9);
+        assertThat(pending.waitingSize()).isEqualTo(0);
+        assertThat(pending.size()).isEqualTo(0);
+        assertThat(pending.remove(3)).isNull();
+    }
+}
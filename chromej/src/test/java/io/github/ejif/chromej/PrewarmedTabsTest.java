@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PrewarmedTabsTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testTakeAndRefill() throws Exception {
+        ChromeJ prewarmed = chromeJ.withPrewarmedTabs(2);
+        waitUntil(() -> server.getTargetCount() == 2);
+        List<String> prewarmedIds = chromeJ.getHttpProtocol().getTargets().stream()
+            .map(Target::getId)
+            .collect(Collectors.toList());
+        try (ConnectedTarget target = prewarmed.newTab()) {
+            assertThat(prewarmedIds).contains(target.getTarget().getId());
+            assertThat(target.isOpen()).isTrue();
+            waitUntil(() -> server.getTargetCount() == 3);
+
+            // only the tabs that were not taken are closed, including one still being connected
+            prewarmed.closePrewarmedTabs();
+            waitUntil(() -> server.getTargetCount() == 1);
+            target.closeTab();
+        }
+        assertThat(server.getTargetCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNewTabAfterClose() throws Exception {
+        ChromeJ prewarmed = chromeJ.withPrewarmedTabs(1);
+        prewarmed.closePrewarmedTabs();
+        assertThatThrownBy(prewarmed::newTab).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testWebSocketOptionsAfterPrewarming() throws Exception {
+        ChromeJ prewarmed = chromeJ.withPrewarmedTabs(1);
+        try {
+            assertThatThrownBy(() -> prewarmed.withWebSocketOptions(WebSocketOptions.defaults()))
+                .isInstanceOf(IllegalStateException.class);
+        } finally {
+            prewarmed.closePrewarmedTabs();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.io.ReadResponse;
+import io.github.ejif.chromej.protocol.page.PrintToPDFRequest;
+import io.github.ejif.chromej.protocol.page.PrintToPDFRequestTransferMode;
+
+public final class ProtocolJsonTest {
+
+    @Test
+    public void testAbsentOptionalPrimitivesAreOmitted() throws Exception {
+        PrintToPDFRequest request = PrintToPDFRequest.builder()
+            .landscape(false)
+            .transferMode(PrintToPDFRequestTransferMode.RETURN_AS_STREAM)
+            .build();
+        assertThat(request.hasLandscape()).isTrue();
+        assertThat(request.hasScale()).isFalse();
+        assertThat(WebSocketConnection.mapper.writeValueAsString(request))
+            .isEqualTo("{\"landscape\":false,\"transferMode\":\"ReturnAsStream\"}");
+    }
+
+    @Test
+    public void testPresenceIsRead() throws Exception {
+        ReadResponse response = WebSocketConnection.mapper.readValue(
+            "{\"data\":\"abc\",\"eof\":true,\"unknown\":{\"a\":[1]}}", ReadResponse.class);
+        assertThat(response.getData()).isEqualTo("abc");
+        assertThat(response.isEof()).isTrue();
+        assertThat(response.hasBase64Encoded()).isFalse();
+        assertThat(response).isEqualTo(ReadResponse.builder()
+            .data("abc")
+            .eof(true)
+            .build());
+    }
+}
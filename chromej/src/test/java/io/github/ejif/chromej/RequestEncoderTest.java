@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public final class RequestEncoderTest {
+
+    @Test
+    public void testEncode() throws Exception {
+        RequestEncoder encoder = new RequestEncoder(WebSocketConnection.mapper);
+        assertThat(encoder.encode(1, "Page.navigate", Collections.singletonMap("url", "a\"b"), null))
+            .isEqualTo("{\"id\":1,\"method\":\"Page.navigate\",\"params\":{\"url\":\"a\\\"b\"}}");
+        assertThat(encoder.encode(2, "Runtime.enable", null, "session"))
+            .isEqualTo("{\"id\":2,\"method\":\"Runtime.enable\",\"sessionId\":\"session\"}");
+    }
+
+    @Test
+    public void testEncoderRecoversFromFailure() throws Exception {
+        RequestEncoder encoder = new RequestEncoder(WebSocketConnection.mapper);
+        // no serializer for a plain Object
+        assertThatThrownBy(() -> encoder.encode(1, "a", new Object(), null))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("No serializer found");
+        assertThat(encoder.encode(2, "b", null, null)).isEqualTo("{\"id\":2,\"method\":\"b\"}");
+    }
+}
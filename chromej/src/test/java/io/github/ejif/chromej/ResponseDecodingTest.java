@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.ejif.chromej.protocol.runtime.EvaluateResponse;
+
+public final class ResponseDecodingTest {
+
+    private static final String RESULT = "{\"result\":{\"type\":\"object\",\"value\":{\"a\":[1,2]},\"description\":\"Object\","
+            + "\"unknownField\":{\"nested\":[1,{\"b\":2}]}},"
+            + "\"exceptionDetails\":{\"exceptionId\":1,\"text\":\"Uncaught\",\"lineNumber\":3,\"columnNumber\":4}}";
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", RESULT);
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    private static EvaluateResponse evaluate(ConnectedTarget target) throws Exception {
+        return target.executeAsync("Runtime.evaluate", null, EvaluateResponse.class).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDecodesIntoResponseType() throws Exception {
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertDecoded(evaluate(target));
+        }
+    }
+
+    @Test
+    public void testDecodesResultBeforeId() throws Exception {
+        // the result can't be decoded until the ID says which type it is for, so it is buffered
+        server.setResultBeforeId(true);
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertDecoded(evaluate(target));
+        }
+    }
+
+    private static void assertDecoded(EvaluateResponse response) {
+        assertThat(response.getResult().getDescription()).isEqualTo("Object");
+        assertThat((Map<?, ?>) response.getResult().getValue()).containsOnlyKeys("a");
+        assertThat(response.getExceptionDetails().getText()).isEqualTo("Uncaught");
+        assertThat(response.getExceptionDetails().getLineNumber()).isEqualTo(3);
+    }
+
+    @Test
+    public void testMalformedResultFailsOnlyItsCommand() throws Exception {
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\"},\"exceptionDetails\":{\"lineNumber\":\"three\"}}");
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            CompletableFuture<EvaluateResponse> malformed = target.executeAsync("Runtime.evaluate", null, EvaluateResponse.class);
+            assertThatThrownBy(() -> malformed.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+
+            server.setResult("Runtime.evaluate", RESULT);
+            assertDecoded(evaluate(target));
+            assertThat(target.isOpen()).isTrue();
+        }
+    }
+
+    @Test
+    public void testSkipsVoidResults() throws Exception {
+        server.setResult("Page.enable", RESULT);
+        try (ConnectedTarget target = chromeJ.newTab()) {
+            assertThat(target.executeAsync("Page.enable", null, Void.class).get(10, TimeUnit.SECONDS)).isNull();
+            target.getProtocol().getPage().enable();
+            assertThat(server.getCommandsReceived("Page.enable")).isEqualTo(2);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TargetPoolTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        setOrigin("null");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    private void setOrigin(String origin) {
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"string\",\"value\":\"" + origin + "\"}}");
+    }
+
+    @Test
+    public void testLeaseAndReturn() throws Exception {
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.defaults())) {
+            String targetId;
+            try (TargetLease lease = pool.acquire()) {
+                targetId = lease.getTarget().getTarget().getId();
+                assertThat(pool.getMetrics().getLeasedTabs()).isEqualTo(1);
+            }
+            pool.acquire().close();
+            try (TargetLease lease = pool.acquire()) {
+                assertThat(lease.getTarget().getTarget().getId()).isEqualTo(targetId);
+            }
+            TargetPoolMetrics metrics = pool.getMetrics();
+            assertThat(metrics.getLeasedTabs()).isEqualTo(0);
+            assertThat(metrics.getIdleTabs()).isEqualTo(1);
+            assertThat(metrics.getTotalLeases()).isEqualTo(3);
+            assertThat(metrics.getTabsCreated()).isEqualTo(1);
+        }
+        assertThat(server.getTargetCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        setOrigin("https://example.com");
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.defaults())) {
+            TargetLease lease = pool.acquire();
+            ConnectedTarget target = lease.getTarget();
+            lease.close();
+            assertThatThrownBy(lease::getTarget).isInstanceOf(IllegalStateException.class);
+            assertThat(server.getCommandsReceived("Storage.clearDataForOrigin")).isEqualTo(1);
+            assertThat(server.getCommandsReceived("Page.navigate")).isEqualTo(1);
+            assertThat(target.isOpen()).isTrue();
+
+            // pages without a web origin (e.g. about:blank) have no storage to clear
+            setOrigin("null");
+            pool.acquire().close();
+            assertThat(server.getCommandsReceived("Storage.clearDataForOrigin")).isEqualTo(1);
+            assertThat(server.getCommandsReceived("Page.navigate")).isEqualTo(2);
+            assertThat(pool.getMetrics().getTabsEvicted()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testEvictsClosedTabs() throws Exception {
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.defaults())) {
+            String targetId;
+            try (TargetLease lease = pool.acquire()) {
+                targetId = lease.getTarget().getTarget().getId();
+                lease.getTarget().close();
+            }
+            assertThat(pool.getMetrics().getTabsEvicted()).isEqualTo(1);
+            assertThat(pool.getMetrics().getIdleTabs()).isEqualTo(0);
+            assertThat(server.getTargetCount()).isEqualTo(0);
+            try (TargetLease lease = pool.acquire()) {
+                assertThat(lease.getTarget().getTarget().getId()).isNotEqualTo(targetId);
+                lease.invalidate();
+            }
+            assertThat(pool.getMetrics().getTabsEvicted()).isEqualTo(2);
+            assertThat(pool.getMetrics().getTabsCreated()).isEqualTo(2);
+            assertThat(server.getTargetCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testMaxLeasesPerTab() throws Exception {
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.builder()
+            .maxLeasesPerTab(2)
+            .build())) {
+            for (int i = 0; i < 4; i++)
+                pool.acquire().close();
+            assertThat(pool.getMetrics().getTabsCreated()).isEqualTo(2);
+            assertThat(pool.getMetrics().getTabsEvicted()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testMaxTabs() throws Exception {
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.builder()
+            .maxTabs(1)
+            .acquireTimeoutMillis(100)
+            .build())) {
+            TargetLease lease = pool.acquire();
+            assertThatThrownBy(pool::acquire)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("all 1 tabs are leased");
+            lease.close();
+            pool.acquire().close();
+            assertThat(pool.getMetrics().getTabsCreated()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testIdleTabsCountAgainstMaxTabs() throws Exception {
+        try (TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.builder()
+            .maxTabs(2)
+            .minIdleTabs(2)
+            .acquireTimeoutMillis(100)
+            .build())) {
+            // leasing races with the idle tabs still being opened in the background
+            TargetLease first = pool.acquire();
+            TargetLease second = pool.acquire();
+            assertThatThrownBy(pool::acquire).isInstanceOf(IllegalStateException.class);
+            assertThat(pool.getMetrics().getTabsCreated()).isEqualTo(2);
+            assertThat(server.getTargetCount()).isEqualTo(2);
+            first.close();
+            second.close();
+            pool.acquire().close();
+            assertThat(pool.getMetrics().getTabsCreated()).isEqualTo(2);
+        }
+        assertThat(server.getTargetCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        TargetPool pool = new TargetPool(chromeJ, TargetPoolOptions.defaults());
+        TargetLease idle = pool.acquire();
+        TargetLease leased = pool.acquire();
+        idle.close();
+        pool.close();
+        assertThat(server.getTargetCount()).isEqualTo(1);
+        assertThatThrownBy(pool::acquire).isInstanceOf(IllegalStateException.class);
+        leased.close();
+        assertThat(server.getTargetCount()).isEqualTo(0);
+    }
+}
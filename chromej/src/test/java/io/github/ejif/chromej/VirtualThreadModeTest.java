@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class VirtualThreadModeTest {
+
+    private FakeChromeServer server;
+    private ChromeJ chromeJ;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeChromeServer();
+        server.setResult("Runtime.evaluate", "{\"result\":{\"type\":\"number\",\"value\":2,\"description\":\"2\"}}");
+        chromeJ = ChromeJ.create(server.getUrl());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Runs <code>Runtime.evaluate</code> on the given target from many callers at once, each on a
+     * thread of its own (a virtual thread where supported), and checks that every call returns.
+     */
+    private void evaluateConcurrently(ConnectedTarget target, int callers) throws Exception {
+        ExecutorService executor = VirtualThreads.newExecutor("test-caller");
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++)
+                results.add(executor.submit(() -> target.evaluate("1 + 1")));
+            for (Future<Object> result : results)
+                assertThat(result.get(30, TimeUnit.SECONDS)).isEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(server.getCommandsReceived("Runtime.evaluate")).isEqualTo(callers);
+    }
+
+    @Test
+    public void testVirtualThreadBuilder() throws Exception {
+        WebSocketOptions options = WebSocketOptions.virtualThreadBuilder().build();
+        if (!VirtualThreads.isSupported())
+            assertThat(options.getDispatcher()).isSameAs(WebSocketOptions.defaults().getDispatcher());
+        try (ConnectedTarget target = chromeJ.withWebSocketOptions(options).newTab()) {
+            evaluateConcurrently(target, 500);
+        }
+    }
+
+    @Test
+    public void testWritesOnDispatcher() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "test-writer"));
+        AtomicInteger drains = new AtomicInteger();
+        ChromeJ dispatched = chromeJ.withWebSocketOptions(WebSocketOptions.builder()
+            .dispatcher(runnable -> {
+                drains.incrementAndGet();
+                pool.execute(runnable);
+            })
+            .build());
+        try (ConnectedTarget target = dispatched.newTab()) {
+            evaluateConcurrently(target, 200);
+            // callers only queue their commands; the writer runs at most once per command, and sends
+            // everything queued by the time it runs
+            assertThat(drains.get()).isBetween(1, server.getCommandsReceived());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
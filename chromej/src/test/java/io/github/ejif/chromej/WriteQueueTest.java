@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public final class WriteQueueTest {
+
+    @Test
+    public void testItemsFromEachProducerAreConsumedInOrder() throws Exception {
+        int producers = 8;
+        int itemsPerProducer = 10_000;
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        AtomicInteger outOfOrder = new AtomicInteger();
+        AtomicInteger concurrentConsumers = new AtomicInteger();
+        AtomicInteger maxConcurrentConsumers = new AtomicInteger();
+        CountDownLatch consumed = new CountDownLatch(producers * itemsPerProducer);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            WriteQueue<int[]> queue = new WriteQueue<>(executor, item -> {
+                maxConcurrentConsumers.accumulateAndGet(concurrentConsumers.incrementAndGet(), Math::max);
+                if (item[1] != lastSeen[item[0]] + 1)
+                    outOfOrder.incrementAndGet();
+                lastSeen[item[0]] = item[1];
+                concurrentConsumers.decrementAndGet();
+                consumed.countDown();
+            });
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                executor.execute(() -> {
+                    for (int i = 0; i < itemsPerProducer; i++)
+                        queue.add(new int[] { producer, i });
+                });
+            }
+            assertThat(consumed.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(outOfOrder.get()).isZero();
+            assertThat(maxConcurrentConsumers.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAddAllConsumesInOnePass() throws Exception {
+        List<Integer> consumed = new ArrayList<>();
+        List<Runnable> scheduled = new ArrayList<>();
+        WriteQueue<Integer> queue = new WriteQueue<>(scheduled::add, consumed::add);
+        queue.addAll(Arrays.asList(1, 2, 3));
+        queue.add(4);
+        assertThat(scheduled).hasSize(1);
+        scheduled.get(0).run();
+        assertThat(consumed).containsExactly(1, 2, 3, 4);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.Modifier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import lombok.Data;
+
+/**
+ * Generates Jackson serializers and deserializers for protocol classes, as nested classes that
+ * stream each value directly instead of going through bean introspection. Values whose type is
+ * another protocol class are delegated to that class's own serializer or deserializer.
+ * <p>
+ * Optional primitive fields are tracked by a bitset in the generated class; the serializer leaves
+ * them out unless their bit is set, and the deserializer sets the bit of each one it reads.
+ */
+final class JsonCodecGenerator {
+
+    static final String SERIALIZER = "Serializer";
+    static final String DESERIALIZER = "Deserializer";
+    static final String PRESENT_FIELDS = "presentFields";
+
+    private static final TypeName STRING = TypeName.get(String.class);
+
+    private JsonCodecGenerator() {}
+
+    /**
+     * Creates a serializer that writes the given properties of <code>className</code> as a JSON
+     * object, leaving out null fields and absent optional primitives. Field names are encoded once,
+     * in constants.
+     */
+    static TypeSpec createSerializer(ClassName className, List<Property> properties) {
+        TypeSpec.Builder spec = createSerializerClass(className);
+        MethodSpec.Builder serialize = createSerializeMethod(className)
+            .addStatement("generator.writeStartObject()");
+        Set<String> constants = new HashSet<>();
+        for (Property property : properties) {
+            String name = property.field.name;
+            TypeName type = property.field.type;
+            String constant = ProtocolGenerator.getEnumName(name);
+            while (!constants.add(constant))
+                constant += '_';
+            spec.addField(FieldSpec.builder(SerializableString.class, constant, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T($S)", SerializedString.class, property.jsonName)
+                .build());
+
+            if (property.mask != null)
+                serialize.beginControlFlow("if ((value.$N & $L) != 0)", PRESENT_FIELDS, property.mask);
+            else if (!type.isPrimitive())
+                serialize.beginControlFlow("if (value.$N != null)", name);
+            serialize.addStatement("generator.writeFieldName($N)", constant)
+                .addStatement(write(type, CodeBlock.of("value.$N", name)));
+            if (property.mask != null || !type.isPrimitive())
+                serialize.endControlFlow();
+        }
+        serialize.addStatement("generator.writeEndObject()");
+        return spec.addMethod(serialize.build()).build();
+    }
+
+    /**
+     * Creates a deserializer that reads a JSON object into the builder of <code>className</code>.
+     * Null values are treated as absent, and unknown fields are skipped.
+     */
+    static TypeSpec createDeserializer(ClassName className, ClassName builderName, List<Property> properties) {
+        TypeSpec.Builder spec = createDeserializerClass(className);
+        MethodSpec.Builder deserialize = createDeserializeMethod(className)
+            .addStatement("$T builder = $T.builder()", builderName, className)
+            .addStatement("$T token = parser.getCurrentToken()", JsonToken.class)
+            .beginControlFlow("if (token == $T.START_OBJECT)", JsonToken.class)
+            .addStatement("token = parser.nextToken()")
+            .endControlFlow()
+            .beginControlFlow("for (; token == $T.FIELD_NAME; token = parser.nextToken())", JsonToken.class)
+            .addStatement("String fieldName = parser.getCurrentName()")
+            .beginControlFlow("if (parser.nextToken() == $T.VALUE_NULL)", JsonToken.class)
+            .addStatement("continue")
+            .endControlFlow()
+            .beginControlFlow("switch (fieldName)");
+        for (Property property : properties) {
+            String name = property.field.name;
+            deserialize.addCode("case $S:\n$>", property.jsonName)
+                .addStatement("builder.$N($L)", name, read(spec, property.field.type, ProtocolGenerator.getEnumName(name) + "_TYPE"))
+                .addStatement("break")
+                .addCode("$<");
+        }
+        deserialize.addCode("default:\n$>")
+            .addStatement("parser.skipChildren()")
+            .addCode("$<")
+            .endControlFlow()
+            .endControlFlow()
+            .addStatement("return builder.build()");
+        return spec.addMethod(deserialize.build()).build();
+    }
+
+    /**
+     * Creates a serializer that writes a class extending <code>ArrayList</code> as a JSON array.
+     */
+    static TypeSpec createArraySerializer(ClassName className, TypeName elementType) {
+        return createSerializerClass(className)
+            .addMethod(createSerializeMethod(className)
+                .addStatement("generator.writeStartArray(value.size())")
+                .beginControlFlow("for ($T element : value)", elementType)
+                .beginControlFlow("if (element == null)")
+                .addStatement("generator.writeNull()")
+                .nextControlFlow("else")
+                .addStatement(write(unbox(elementType), CodeBlock.of("element")))
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("generator.writeEndArray()")
+                .build())
+            .build();
+    }
+
+    /**
+     * Creates a deserializer that reads a JSON array into a class extending <code>ArrayList</code>.
+     */
+    static TypeSpec createArrayDeserializer(ClassName className, TypeName elementType) {
+        TypeSpec.Builder spec = createDeserializerClass(className);
+        return spec.addMethod(createDeserializeMethod(className)
+            .beginControlFlow("if (parser.getCurrentToken() != $T.START_ARRAY)", JsonToken.class)
+            .addStatement("return ($T) context.handleUnexpectedToken($T.class, parser)", className, className)
+            .endControlFlow()
+            .addStatement("$T value = new $T()", className, className)
+            .addStatement("$T token", JsonToken.class)
+            .beginControlFlow("while ((token = parser.nextToken()) != $T.END_ARRAY)", JsonToken.class)
+            .addStatement("value.add(token == $T.VALUE_NULL ? null : $L)", JsonToken.class, read(spec, unbox(elementType), "ELEMENT_TYPE"))
+            .endControlFlow()
+            .addStatement("return value")
+            .build())
+            .build();
+    }
+
+    /**
+     * Creates a serializer that writes an enum as its protocol value.
+     */
+    static TypeSpec createEnumSerializer(ClassName className) {
+        return createSerializerClass(className)
+            .addMethod(createSerializeMethod(className)
+                .addStatement("generator.writeString(value.getValue())")
+                .build())
+            .build();
+    }
+
+    /**
+     * Creates a deserializer that reads an enum from its protocol value.
+     *
+     * @param constants
+     *            The protocol value of each enum constant, by constant name
+     */
+    static TypeSpec createEnumDeserializer(ClassName className, Map<String, String> constants) {
+        MethodSpec.Builder deserialize = createDeserializeMethod(className)
+            .addStatement("String text = parser.getText()")
+            .beginControlFlow("switch (text)");
+        constants.forEach((constant, value) -> deserialize.addCode("case $S:\n$>", value)
+            .addStatement("return $N", constant)
+            .addCode("$<"));
+        deserialize.addCode("default:\n$>")
+            .addStatement("return ($T) context.handleWeirdStringValue($T.class, text, $S)", className, className,
+                "not one of the values accepted for the enum")
+            .addCode("$<")
+            .endControlFlow();
+        return createDeserializerClass(className)
+            .addMethod(deserialize.build())
+            .build();
+    }
+
+    /**
+     * Creates a serializer that writes an alias type as its <code>value</code> field.
+     */
+    static TypeSpec createAliasSerializer(ClassName className, TypeName valueType) {
+        return createSerializerClass(className)
+            .addMethod(createSerializeMethod(className)
+                .addStatement(write(valueType, CodeBlock.of("value.value")))
+                .build())
+            .build();
+    }
+
+    /**
+     * Creates a deserializer that reads an alias type through its <code>of</code> factory.
+     */
+    static TypeSpec createAliasDeserializer(ClassName className, TypeName valueType) {
+        TypeSpec.Builder spec = createDeserializerClass(className);
+        return spec.addMethod(createDeserializeMethod(className)
+            .addStatement("return $T.of($L)", className, read(spec, valueType, "VALUE_TYPE"))
+            .build())
+            .build();
+    }
+
+    /**
+     * @return A statement writing the given value, which is not null
+     */
+    private static CodeBlock write(TypeName type, CodeBlock value) {
+        if (type.equals(TypeName.BOOLEAN))
+            return CodeBlock.of("generator.writeBoolean($L)", value);
+        else if (type.equals(TypeName.INT) || type.equals(TypeName.DOUBLE))
+            return CodeBlock.of("generator.writeNumber($L)", value);
+        else if (type.equals(STRING))
+            return CodeBlock.of("generator.writeString($L)", value);
+        else
+            return CodeBlock.of("provider.defaultSerializeValue($L, generator)", value);
+    }
+
+    /**
+     * @return An expression reading a value of the given type from the parser's current token,
+     *         which is not null. Collection types are resolved once, into a constant added to the
+     *         deserializer.
+     */
+    private static CodeBlock read(TypeSpec.Builder deserializer, TypeName type, String typeConstant) {
+        if (type.equals(TypeName.BOOLEAN))
+            return CodeBlock.of("parser.getBooleanValue()");
+        else if (type.equals(TypeName.INT))
+            return CodeBlock.of("parser.getIntValue()");
+        else if (type.equals(TypeName.DOUBLE))
+            return CodeBlock.of("parser.getDoubleValue()");
+        else if (type.equals(STRING))
+            return CodeBlock.of("parser.getText()");
+        else if (type instanceof ParameterizedTypeName) {
+            deserializer.addField(FieldSpec.builder(JavaType.class, typeConstant, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$T.defaultInstance().constructCollectionType($T.class, $T.class)", TypeFactory.class,
+                    List.class, ((ParameterizedTypeName) type).typeArguments.get(0))
+                .build());
+            return CodeBlock.of("context.readValue(parser, $N)", typeConstant);
+        } else
+            return CodeBlock.of("context.readValue(parser, $T.class)", type);
+    }
+
+    private static TypeName unbox(TypeName type) {
+        return type.isBoxedPrimitive() ? type.unbox() : type;
+    }
+
+    private static TypeSpec.Builder createSerializerClass(ClassName className) {
+        return TypeSpec.classBuilder(SERIALIZER)
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+            .superclass(ParameterizedTypeName.get(ClassName.get(StdSerializer.class), className))
+            .addJavadoc("Writes {@link $T} as JSON.\n", className)
+            .addField(serialVersionUid())
+            .addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super($T.class)", className)
+                .build());
+    }
+
+    private static MethodSpec.Builder createSerializeMethod(ClassName className) {
+        return MethodSpec.methodBuilder("serialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .addParameter(className, "value")
+            .addParameter(JsonGenerator.class, "generator")
+            .addParameter(SerializerProvider.class, "provider")
+            .addException(IOException.class);
+    }
+
+    private static TypeSpec.Builder createDeserializerClass(ClassName className) {
+        return TypeSpec.classBuilder(DESERIALIZER)
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+            .superclass(ParameterizedTypeName.get(ClassName.get(StdDeserializer.class), className))
+            .addJavadoc("Reads {@link $T} from JSON.\n", className)
+            .addField(serialVersionUid())
+            .addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super($T.class)", className)
+                .build());
+    }
+
+    private static MethodSpec.Builder createDeserializeMethod(ClassName className) {
+        return MethodSpec.methodBuilder("deserialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .addParameter(JsonParser.class, "parser")
+            .addParameter(DeserializationContext.class, "context")
+            .addException(IOException.class)
+            .returns(className);
+    }
+
+    private static FieldSpec serialVersionUid() {
+        return FieldSpec.builder(long.class, "serialVersionUID", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .initializer("1")
+            .build();
+    }
+
+    /**
+     * A field of a generated class, with the name it has in JSON.
+     */
+    @Data
+    static final class Property {
+
+        final String jsonName;
+        final FieldSpec field;
+        /**
+         * The literal of the field's bit in the presence bitset, or null if the field's presence is
+         * not tracked.
+         */
+        final String mask;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+/**
+ * Selects which parts of the protocol are generated. By default everything is generated. When any
+ * option is set, only the commands and events that pass the filter are generated, along with the
+ * types they reference (transitively, across domains); types that nothing references are left out.
+ * Optional parameters, return values and properties that are left out by the experimental and
+ * deprecated options, or whose type is, are dropped too.
+ * <p>
+ * The commands and events that the chromej runtime itself uses are always generated in full, so
+ * that it compiles against any filtered protocol.
+ */
+@Builder(toBuilder = true)
+@Data
+final class ProtocolFilter {
+
+    /**
+     * Commands and events used by the chromej runtime, which are kept regardless of the filter.
+     * <code>ProtocolFilterTest</code> checks that this covers every one the runtime refers to.
+     */
+    static final Set<String> REQUIRED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "DOM.getDocument",
+        "DOM.getOuterHTML",
+        "IO.close",
+        "IO.read",
+        "Network.loadingFailed",
+        "Network.loadingFinished",
+        "Network.requestWillBeSent",
+        "Page.captureScreenshot",
+        "Page.lifecycleEvent",
+        "Page.navigate",
+        "Page.printToPDF",
+        "Page.setLifecycleEventsEnabled",
+        "Runtime.evaluate",
+        "Storage.clearDataForOrigin",
+        "Target.attachToTarget",
+        "Target.closeTarget",
+        "Target.createTarget",
+        "Target.detachFromTarget",
+        "Target.getTargets",
+        "Target.setAutoAttach",
+        "Target.setDiscoverTargets")));
+
+    /**
+     * If not empty, only these domains are generated.
+     */
+    @Singular
+    private final Set<String> includeDomains;
+
+    /**
+     * Domains that are not generated.
+     */
+    @Singular
+    private final Set<String> excludeDomains;
+
+    /**
+     * Whether to generate domains, commands, events, types and optional fields marked as
+     * experimental.
+     */
+    @Builder.Default
+    private final boolean includeExperimental = true;
+
+    /**
+     * Whether to generate domains, commands, events, types and optional fields marked as
+     * deprecated.
+     */
+    @Builder.Default
+    private final boolean includeDeprecated = true;
+
+    /**
+     * @return A filter that generates everything
+     */
+    static ProtocolFilter all() {
+        return builder().build();
+    }
+
+    /**
+     * @return Whether this filter generates everything
+     */
+    boolean isEverything() {
+        return includeDomains.isEmpty() && excludeDomains.isEmpty() && includeExperimental && includeDeprecated;
+    }
+
+    boolean includesDomain(String domain, boolean experimental, boolean deprecated) {
+        if (!includeDomains.isEmpty() && !includeDomains.contains(domain))
+            return false;
+        return !excludeDomains.contains(domain) && includesItem(experimental, deprecated);
+    }
+
+    boolean includesItem(boolean experimental, boolean deprecated) {
+        return (includeExperimental || !experimental) && (includeDeprecated || !deprecated);
+    }
+}
@@ -6,26 +6,38 @@ package io.github.ejif.chromej;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Modifier;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.text.WordUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.FieldSpec;
@@ -34,45 +46,407 @@ import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
 
+import io.github.ejif.chromej.JsonCodecGenerator.Property;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.ToString;
 
 /**
  * Generates a Java interface for each Chrome Devtools domain. Each command in the domain
- * corresponds to a method in the interface.
+ * corresponds to a method in the interface. An asynchronous variant of each interface is also
+ * generated, whose methods return a {@link CompletionStage} of the response instead of blocking.
+ * Each event in the domain corresponds to a class holding its parameters.
+ * <p>
+ * Every interface also gets an implementation class that hands each command, with its name and
+ * result type as constants, to a <code>CommandExecutor</code> (or, for the asynchronous variants,
+ * an <code>AsyncCommandExecutor</code>). This lets the runtime dispatch commands without
+ * reflection.
+ * <p>
+ * Files whose contents didn't change are not rewritten, so that builds stay incremental. Whether to
+ * run at all is left to Gradle, whose <code>generate</code> task declares the schema, the
+ * generator's classpath and its options as inputs.
+ * A {@link ProtocolFilter} can restrict generation to some domains, or leave out experimental and
+ * deprecated items.
  */
 @RequiredArgsConstructor
 public final class ProtocolGenerator {
 
     private static final Logger log = LoggerFactory.getLogger(ProtocolGenerator.class);
 
-    private final URI protocolUrl;
+    private final List<File> protocolFiles;
     private final File rootFile;
     private final String outputPackage;
+    private final ProtocolFilter filter;
+    private final Set<Path> writtenFiles = new HashSet<>();
 
     public void generate() {
-        Protocol protocol = getProtocol();
+        Protocol protocol = filter(getProtocol());
 
         TypeSpec.Builder spec = TypeSpec.interfaceBuilder("WsProtocol")
             .addModifiers(Modifier.PUBLIC)
             .addSuperinterface(AutoCloseable.class);
+        TypeSpec.Builder asyncSpec = TypeSpec.interfaceBuilder("AsyncWsProtocol")
+            .addModifiers(Modifier.PUBLIC);
+        TypeSpec.Builder implSpec = createImplClass(outputPackage, "WsProtocol", false);
+        TypeSpec.Builder asyncImplSpec = createImplClass(outputPackage, "AsyncWsProtocol", true);
         for (Domain domain : protocol.domains) {
             generateDomain(domain);
+            if (domain.typesOnly)
+                continue;
+            ClassName domainName = ClassName.get(getPackage(domain.domain), domain.domain);
+            ClassName asyncDomainName = ClassName.get(getPackage(domain.domain), getAsyncName(domain.domain));
             spec.addMethod(MethodSpec.methodBuilder("get" + domain.domain)
                 .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
-                .returns(ClassName.get(getPackage(domain.domain), domain.domain))
+                .returns(domainName)
+                .build());
+            asyncSpec.addMethod(MethodSpec.methodBuilder("get" + domain.domain)
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .returns(asyncDomainName)
                 .build());
+            addDomainGetter(implSpec, domain.domain, domainName);
+            addDomainGetter(asyncImplSpec, domain.domain, asyncDomainName);
         }
+        implSpec.addMethod(MethodSpec.methodBuilder("close")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .addJavadoc("Does nothing: the protocol does not own the connection it sends commands over.\n")
+            .build());
         write(outputPackage, spec.build());
+        write(outputPackage, asyncSpec.build());
+        write(outputPackage, implSpec.addMethod(createImplConstructor(false).build()).build());
+        write(outputPackage, asyncImplSpec.addMethod(createImplConstructor(true).build()).build());
+        generateEventType();
+        generateCommandExecutors();
+        deleteStaleFiles();
+    }
+
+    /**
+     * Generates the <code>CommandExecutor</code> and <code>AsyncCommandExecutor</code> interfaces,
+     * which the generated implementation classes hand each command to. They are separate so that
+     * an executor that can only run commands asynchronously (such as a batch) implements just
+     * <code>AsyncCommandExecutor</code>.
+     */
+    private void generateCommandExecutors() {
+        TypeVariableName t = TypeVariableName.get("T");
+        TypeName resultType = ParameterizedTypeName.get(ClassName.get(Class.class), t);
+        write(outputPackage, TypeSpec.interfaceBuilder("CommandExecutor")
+            .addModifiers(Modifier.PUBLIC)
+            .addJavadoc("Executes commands on behalf of the generated protocol implementations, waiting for each result.\n")
+            .addMethod(MethodSpec.methodBuilder("execute")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addTypeVariable(t)
+                .addParameter(String.class, "method")
+                .addParameter(Object.class, "params")
+                .addParameter(resultType, "resultType")
+                .returns(t)
+                .addJavadoc("Executes a command and waits for its result.\n\n")
+                .addJavadoc("@param method the fully qualified command name, e.g. <code>Runtime.evaluate</code>\n")
+                .addJavadoc("@param params the request, or null if the command takes no parameters\n")
+                .addJavadoc("@param resultType the class to decode the result into\n")
+                .addJavadoc("@return the result\n")
+                .build())
+            .build());
+        write(outputPackage, TypeSpec.interfaceBuilder("AsyncCommandExecutor")
+            .addModifiers(Modifier.PUBLIC)
+            .addJavadoc("Executes commands on behalf of the generated asynchronous protocol implementations.\n")
+            .addMethod(MethodSpec.methodBuilder("executeAsync")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addTypeVariable(t)
+                .addParameter(String.class, "method")
+                .addParameter(Object.class, "params")
+                .addParameter(resultType, "resultType")
+                .returns(ParameterizedTypeName.get(ClassName.get(CompletionStage.class), t))
+                .addJavadoc("Executes a command without waiting for its result.\n\n")
+                .addJavadoc("@param method the fully qualified command name, e.g. <code>Runtime.evaluate</code>\n")
+                .addJavadoc("@param params the request, or null if the command takes no parameters\n")
+                .addJavadoc("@param resultType the class to decode the result into\n")
+                .addJavadoc("@return a stage completed with the result\n")
+                .build())
+            .build());
+    }
+
+    /**
+     * Creates the spec for a final class implementing the given interface, with a field holding the
+     * <code>CommandExecutor</code>, or the <code>AsyncCommandExecutor</code> if the interface is
+     * asynchronous.
+     */
+    private TypeSpec.Builder createImplClass(String package_, String interfaceName, boolean async) {
+        return TypeSpec.classBuilder(getImplName(interfaceName))
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .addSuperinterface(ClassName.get(package_, interfaceName))
+            .addJavadoc("Implements {@link $L} by handing each command to a {@link $T}.\n", interfaceName, getCommandExecutor(async))
+            .addField(getCommandExecutor(async), "executor", Modifier.PRIVATE, Modifier.FINAL);
+    }
+
+    private MethodSpec.Builder createImplConstructor(boolean async) {
+        return MethodSpec.constructorBuilder()
+            .addModifiers(Modifier.PUBLIC)
+            .addParameter(getCommandExecutor(async), "executor")
+            .addStatement("this.executor = executor");
+    }
+
+    /**
+     * Adds a field holding the implementation of a domain and a getter that creates it on first use,
+     * so that creating a protocol (e.g. for each set of call options) costs a single object instead
+     * of one per domain. Threads racing on the first call may each create an implementation; this is
+     * harmless, since an implementation only holds the (final) executor.
+     */
+    private void addDomainGetter(TypeSpec.Builder implSpec, String domain, ClassName interfaceName) {
+        String fieldName = domain.toLowerCase();
+        while (SourceVersion.isKeyword(fieldName))
+            fieldName += '_';
+        implSpec.addField(interfaceName, fieldName, Modifier.PRIVATE);
+        implSpec.addMethod(MethodSpec.methodBuilder("get" + domain)
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .returns(interfaceName)
+            .addStatement("$T $L = this.$L", interfaceName, fieldName, fieldName)
+            .beginControlFlow("if ($L == null)", fieldName)
+            .addStatement("this.$L = $L = new $T(executor)", fieldName, fieldName,
+                ClassName.get(interfaceName.packageName(), getImplName(interfaceName.simpleName())))
+            .endControlFlow()
+            .addStatement("return $L", fieldName)
+            .build());
     }
 
-    private Protocol getProtocol() {
+    /**
+     * Creates the implementation of a command method declared by a generated interface.
+     *
+     * @param declared
+     *            The method declared by the interface
+     * @param method
+     *            The fully qualified command name
+     * @param resultType
+     *            The class that the command's result is decoded into
+     * @param async
+     *            Whether the method returns a <code>CompletionStage</code>
+     */
+    private static MethodSpec implementCommand(MethodSpec declared, String method, TypeName resultType, boolean async) {
+        String params = declared.parameters.isEmpty() ? "null" : declared.parameters.get(0).name;
+        MethodSpec.Builder impl = MethodSpec.methodBuilder(declared.name)
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .addParameters(declared.parameters)
+            .returns(declared.returnType);
+        if (async)
+            impl.addStatement("return executor.executeAsync($S, $L, $T.class)", method, params, resultType);
+        else if (declared.returnType.equals(TypeName.VOID))
+            impl.addStatement("executor.execute($S, $L, $T.class)", method, params, resultType);
+        else
+            impl.addStatement("return executor.execute($S, $L, $T.class)", method, params, resultType);
+        return impl.build();
+    }
+
+    /**
+     * Generates the <code>EventType</code> class, which identifies an event by its method name and
+     * the class its parameters are deserialized into.
+     */
+    private void generateEventType() {
+        TypeVariableName t = TypeVariableName.get("T");
+        write(outputPackage, TypeSpec.classBuilder("EventType")
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .addTypeVariable(t)
+            .addJavadoc("Identifies an event that can be subscribed to.\n\n@param <T> the class holding the event's parameters\n")
+            .addAnnotation(AnnotationSpec.builder(Data.class)
+                .addMember("staticConstructor", "$S", "of")
+                .build())
+            .addField(FieldSpec.builder(String.class, "method", Modifier.PRIVATE, Modifier.FINAL)
+                .addJavadoc("The fully qualified event name, e.g. <code>Page.loadEventFired</code>\n")
+                .build())
+            .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Class.class), t), "eventClass",
+                Modifier.PRIVATE, Modifier.FINAL)
+                .addJavadoc("The class that the event's parameters are deserialized into\n")
+                .build())
+            .build());
+    }
+
+    /**
+     * Reads the schema files and merges their domains.
+     */
+    Protocol getProtocol() {
+        ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        List<Domain> domains = new ArrayList<>();
         try {
-            String protocolJson = IOUtils.toString(protocolUrl, StandardCharsets.UTF_8);
-            return new ObjectMapper().readValue(protocolJson, Protocol.class);
+            for (File file : protocolFiles)
+                domains.addAll(mapper.readValue(file, Protocol.class).domains);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new Protocol(domains);
+    }
+
+    /**
+     * Applies the {@link ProtocolFilter}: keeps the commands and events that pass it, and the types
+     * that they reference, directly or through other types. Domains without any remaining commands
+     * or events but with referenced types are kept only for those types.
+     * <p>
+     * Optional parameters, return values and properties that are experimental or deprecated, or
+     * whose type is, are dropped along with the types that only they reference. Required ones are
+     * kept, since a command can't be sent without them. The commands and events in
+     * {@link ProtocolFilter#REQUIRED}, and the types they reference, are kept with all their fields.
+     */
+    Protocol filter(Protocol protocol) {
+        if (filter.isEverything())
+            return protocol;
+
+        Map<String, Type> typesByRef = new HashMap<>();
+        for (Domain domain : protocol.domains)
+            if (domain.types != null)
+                for (Type type : domain.types)
+                    typesByRef.put(domain.domain + '.' + type.id, type);
+
+        List<Domain> domains = new ArrayList<>();
+        Deque<String> requiredRefs = new ArrayDeque<>();
+        Deque<String> pendingRefs = new ArrayDeque<>();
+        for (Domain domain : protocol.domains) {
+            boolean included = filter.includesDomain(domain.domain, domain.experimental, domain.deprecated);
+            Domain filtered = new Domain(domain.domain);
+            filtered.description = domain.description;
+            filtered.experimental = domain.experimental;
+            filtered.deprecated = domain.deprecated;
+            filtered.dependencies = domain.dependencies;
+            filtered.commands = new ArrayList<>();
+            filtered.events = new ArrayList<>();
+            if (domain.commands != null)
+                for (Command command : domain.commands) {
+                    if (isRequired(domain, command.name)) {
+                        filtered.commands.add(command);
+                        addRefs(domain.domain, command.parameters, requiredRefs);
+                        addRefs(domain.domain, command.returns, requiredRefs);
+                    } else if (included && filter.includesItem(command.experimental, command.deprecated)) {
+                        command.parameters = filterFields(domain.domain, command.parameters, typesByRef);
+                        command.returns = filterFields(domain.domain, command.returns, typesByRef);
+                        filtered.commands.add(command);
+                        addRefs(domain.domain, command.parameters, pendingRefs);
+                        addRefs(domain.domain, command.returns, pendingRefs);
+                    }
+                }
+            if (domain.events != null)
+                for (Event event : domain.events) {
+                    if (isRequired(domain, event.name)) {
+                        filtered.events.add(event);
+                        addRefs(domain.domain, event.parameters, requiredRefs);
+                    } else if (included && filter.includesItem(event.experimental, event.deprecated)) {
+                        event.parameters = filterFields(domain.domain, event.parameters, typesByRef);
+                        filtered.events.add(event);
+                        addRefs(domain.domain, event.parameters, pendingRefs);
+                    }
+                }
+            filtered.typesOnly = !included && filtered.commands.isEmpty() && filtered.events.isEmpty();
+            domains.add(filtered);
+        }
+
+        // types reached from required items keep all of their properties, so visit them first
+        Set<String> referencedTypes = new HashSet<>();
+        resolveRefs(requiredRefs, referencedTypes, typesByRef, false);
+        resolveRefs(pendingRefs, referencedTypes, typesByRef, true);
+
+        List<Domain> result = new ArrayList<>();
+        for (Domain domain : domains) {
+            domain.types = new ArrayList<>();
+            for (Domain original : protocol.domains)
+                if (original.domain.equals(domain.domain) && original.types != null)
+                    for (Type type : original.types)
+                        if (referencedTypes.contains(domain.domain + '.' + type.id))
+                            domain.types.add(type);
+            if (!domain.typesOnly || !domain.types.isEmpty())
+                result.add(domain);
+        }
+        log.info("Generating {} of {} domains after filtering.", result.size(), protocol.domains.size());
+        return new Protocol(result);
+    }
+
+    private static boolean isRequired(Domain domain, String name) {
+        return ProtocolFilter.REQUIRED.contains(domain.domain + '.' + name);
+    }
+
+    /**
+     * Adds the types referenced, directly or through other types, by the given references to
+     * <code>referencedTypes</code>. Types that are already in it are not visited again.
+     *
+     * @param filterProperties
+     *            Whether to drop the properties of newly visited types that don't pass the filter
+     */
+    private void resolveRefs(Deque<String> pendingRefs, Set<String> referencedTypes, Map<String, Type> typesByRef,
+            boolean filterProperties) {
+        while (!pendingRefs.isEmpty()) {
+            String ref = pendingRefs.pop();
+            if (!referencedTypes.add(ref))
+                continue;
+            Type type = typesByRef.get(ref);
+            if (type == null)
+                throw new IllegalStateException("Unknown type: " + ref);
+            String domain = ref.substring(0, ref.indexOf('.'));
+            if (filterProperties)
+                type.properties = filterFields(domain, type.properties, typesByRef);
+            addRefs(domain, type.properties, pendingRefs);
+            if (type.items != null && type.items.ref != null)
+                pendingRefs.push(qualify(domain, type.items.ref));
+        }
+    }
+
+    /**
+     * Returns the fields that pass the filter: required fields, and optional fields that are
+     * neither experimental nor deprecated themselves nor of a type that is.
+     */
+    private List<Field> filterFields(String domain, List<Field> fields, Map<String, Type> typesByRef) {
+        if (fields == null)
+            return null;
+        List<Field> filtered = new ArrayList<>();
+        for (Field field : fields)
+            if (!field.optional || (filter.includesItem(field.experimental, field.deprecated)
+                    && includesType(domain, field.ref, typesByRef)
+                    && (field.items == null || includesType(domain, field.items.ref, typesByRef))))
+                filtered.add(field);
+        return filtered;
+    }
+
+    private boolean includesType(String domain, String ref, Map<String, Type> typesByRef) {
+        if (ref == null)
+            return true;
+        Type type = typesByRef.get(qualify(domain, ref));
+        return type == null || filter.includesItem(type.experimental, type.deprecated);
+    }
+
+    private static void addRefs(String domain, List<Field> fields, Deque<String> refs) {
+        if (fields == null)
+            return;
+        for (Field field : fields) {
+            if (field.ref != null)
+                refs.push(qualify(domain, field.ref));
+            if (field.items != null && field.items.ref != null)
+                refs.push(qualify(domain, field.items.ref));
+        }
+    }
+
+    /**
+     * Converts a relative reference to a type in the given domain into an absolute one.
+     */
+    private static String qualify(String domain, String ref) {
+        return ref.contains(".") ? ref : domain + '.' + ref;
+    }
+
+    /**
+     * Deletes previously generated files that this run did not generate, e.g. for commands that were
+     * removed from the schema.
+     */
+    private void deleteStaleFiles() {
+        Path outputDir = rootFile.toPath().resolve(outputPackage.replace('.', File.separatorChar));
+        if (!Files.isDirectory(outputDir))
+            return;
+        try (Stream<Path> paths = Files.walk(outputDir)) {
+            for (Path path : paths.filter(path -> path.toString().endsWith(".java")).collect(Collectors.toList()))
+                if (!writtenFiles.contains(path)) {
+                    log.debug("Deleting stale file {}.", path);
+                    Files.delete(path);
+                }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -80,7 +454,9 @@ public final class ProtocolGenerator {
 
     /**
      * Generates a class for all types declared in this domain, a class for all request and response
-     * objects, and an interface with a method for each declared command.
+     * objects, a class for each event, and a blocking and an asynchronous interface with a method for
+     * each declared command, along with their implementations. For a domain that was kept by the
+     * filter only for its types, just the types are generated.
      *
      * @param domain
      */
@@ -89,12 +465,22 @@ public final class ProtocolGenerator {
 
         TypeSpec.Builder spec = TypeSpec.interfaceBuilder(domain.domain)
             .addModifiers(Modifier.PUBLIC);
-        if (domain.description != null)
+        TypeSpec.Builder asyncSpec = TypeSpec.interfaceBuilder(getAsyncName(domain.domain))
+            .addModifiers(Modifier.PUBLIC);
+        TypeSpec.Builder implSpec = createImplClass(package_, domain.domain, false)
+            .addMethod(createImplConstructor(false).build());
+        TypeSpec.Builder asyncImplSpec = createImplClass(package_, getAsyncName(domain.domain), true)
+            .addMethod(createImplConstructor(true).build());
+        if (domain.description != null) {
             spec.addJavadoc("$L\n", StringEscapeUtils.escapeHtml4(domain.description));
+            asyncSpec.addJavadoc("$L\n", StringEscapeUtils.escapeHtml4(domain.description));
+        }
 
         if (domain.types != null)
             for (Type type : domain.types)
                 generateClass(domain.domain, type.id, type.description, type.type, type.properties, type.items, type.enum_);
+        if (domain.typesOnly)
+            return;
 
         if (domain.commands != null)
             for (Command command : domain.commands) {
@@ -108,16 +494,61 @@ public final class ProtocolGenerator {
                     method.addJavadoc("@param request the request\n");
                     generateClass(domain.domain, simpleName, null, null, command.parameters, null, null);
                 }
+                MethodSpec.Builder asyncMethod = method.build().toBuilder();
+                String methodName = domain.domain + '.' + command.name;
+                TypeName resultType = TypeName.get(Void.class);
                 if (command.returns != null) {
                     String simpleName = WordUtils.capitalize(command.name) + "Response";
                     method.returns(ClassName.get(package_, simpleName));
                     method.addJavadoc("@return the response\n", simpleName);
+                    asyncMethod.returns(ParameterizedTypeName.get(
+                        ClassName.get(CompletionStage.class),
+                        ClassName.get(package_, simpleName)));
+                    asyncMethod.addJavadoc("@return a stage completed with the response\n");
                     generateClass(domain.domain, simpleName, null, null, command.returns, null, null);
+                    resultType = ClassName.get(package_, simpleName);
+                } else {
+                    asyncMethod.returns(ParameterizedTypeName.get(CompletionStage.class, Void.class));
+                    asyncMethod.addJavadoc("@return a stage completed when the command finishes\n");
                 }
-                spec.addMethod(method.build());
+                MethodSpec declared = method.build();
+                MethodSpec asyncDeclared = asyncMethod.build();
+                spec.addMethod(declared);
+                asyncSpec.addMethod(asyncDeclared);
+                implSpec.addMethod(implementCommand(declared, methodName, resultType, false));
+                asyncImplSpec.addMethod(implementCommand(asyncDeclared, methodName, resultType, true));
             }
 
+        if (domain.events != null)
+            for (Event event : domain.events)
+                generateEvent(domain.domain, event);
+
         write(package_, spec.build());
+        write(package_, asyncSpec.build());
+        write(package_, implSpec.build());
+        write(package_, asyncImplSpec.build());
+    }
+
+    /**
+     * Generates a class holding the parameters of an event, with a static <code>TYPE</code> field
+     * that can be used to subscribe to it.
+     *
+     * @param domain
+     *            The domain that declares the event
+     * @param event
+     *            The event to generate a class for
+     */
+    private void generateEvent(String domain, Event event) {
+        String simpleName = WordUtils.capitalize(event.name) + "Event";
+        ClassName className = ClassName.get(getPackage(domain), simpleName);
+        ClassName eventType = ClassName.get(outputPackage, "EventType");
+        TypeSpec.Builder spec = createClass(domain, simpleName, event.description, null,
+            event.parameters == null ? Collections.emptyList() : event.parameters, null, null);
+        spec.addField(FieldSpec.builder(ParameterizedTypeName.get(eventType, className), "TYPE",
+            Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+            .initializer("$T.of($S, $T.class)", eventType, domain + '.' + event.name, className)
+            .build());
+        write(getPackage(domain), spec.build());
     }
 
     /**
@@ -133,7 +564,7 @@ public final class ProtocolGenerator {
      * @param type
      *            If none of the remaining fields are set, the generated class will be an alias of
      *            this specified type; for example, if type="string", then the class will contain a
-     *            single String field annotated with @JsonValue
+     *            single String field, which it is serialized as
      * @param fields
      *            If set, the generated class will be a standard POJO with the given fields
      * @param items
@@ -143,6 +574,15 @@ public final class ProtocolGenerator {
      */
     private void generateClass(String domain, String simpleName, String description, String type, List<Field> fields, Items items,
             List<String> enum_) {
+        write(getPackage(domain), createClass(domain, simpleName, description, type, fields, items, enum_).build());
+    }
+
+    /**
+     * Creates the spec for a class as described in
+     * {@link #generateClass(String, String, String, String, List, Items, List)}, without writing it.
+     */
+    private TypeSpec.Builder createClass(String domain, String simpleName, String description, String type, List<Field> fields,
+            Items items, List<String> enum_) {
         TypeSpec.Builder spec = enum_ == null
                 ? TypeSpec.classBuilder(simpleName).addModifiers(Modifier.FINAL)
                 : TypeSpec.enumBuilder(simpleName);
@@ -150,51 +590,182 @@ public final class ProtocolGenerator {
         if (description != null)
             spec.addJavadoc("$L\n", StringEscapeUtils.escapeHtml4(description));
 
+        ClassName className = ClassName.get(getPackage(domain), simpleName);
+        TypeSpec serializer;
+        TypeSpec deserializer;
         if (fields != null) {
-            spec.addAnnotation(AllArgsConstructor.class);
-            spec.addAnnotation(Builder.class);
-            spec.addAnnotation(AnnotationSpec.builder(Data.class)
-                .addMember("staticConstructor", "$S", "of")
-                .build());
-            spec.addAnnotation(AnnotationSpec.builder(JsonInclude.class)
-                .addMember("value", "$T.$L", Include.class, Include.NON_NULL)
-                .build());
-            for (Field field : fields)
-                spec.addField(toFieldSpec(domain, field, simpleName));
+            List<FieldSpec> fieldSpecs = new ArrayList<>();
+            int trackedFields = 0;
+            for (Field field : fields) {
+                FieldSpec fieldSpec = toFieldSpec(domain, field, simpleName);
+                fieldSpecs.add(fieldSpec);
+                if (field.optional && fieldSpec.type.isPrimitive())
+                    trackedFields++;
+            }
+            List<Property> properties = new ArrayList<>();
+            int bit = 0;
+            for (int i = 0; i < fields.size(); i++) {
+                String mask = null;
+                if (fields.get(i).optional && fieldSpecs.get(i).type.isPrimitive())
+                    mask = trackedFields > 32 ? "0x" + Long.toHexString(1L << bit++) + "L" : "0x" + Integer.toHexString(1 << bit++);
+                properties.add(new Property(fields.get(i).name, fieldSpecs.get(i), mask));
+            }
+            if (trackedFields > 0) {
+                addPresenceTracking(spec, className, properties, trackedFields > 32 ? TypeName.LONG : TypeName.INT);
+            } else {
+                spec.addAnnotation(AllArgsConstructor.class);
+                spec.addAnnotation(Builder.class);
+                spec.addAnnotation(AnnotationSpec.builder(Data.class)
+                    .addMember("staticConstructor", "$S", "of")
+                    .build());
+                for (Property property : properties)
+                    spec.addField(property.getField());
+            }
+            serializer = JsonCodecGenerator.createSerializer(className, properties);
+            deserializer = JsonCodecGenerator.createDeserializer(className,
+                className.nestedClass(simpleName + "Builder"), properties);
         } else if (items != null) {
             TypeName typeName = toTypeName(domain, items.type, items.ref);
-            spec.superclass(ParameterizedTypeName.get(
-                ClassName.get(ArrayList.class),
-                typeName.isPrimitive() ? typeName.box() : typeName));
+            TypeName elementType = typeName.isPrimitive() ? typeName.box() : typeName;
+            spec.superclass(ParameterizedTypeName.get(ClassName.get(ArrayList.class), elementType));
             spec.addField(FieldSpec.builder(long.class, "serialVersionUID", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("1")
                 .build());
+            serializer = JsonCodecGenerator.createArraySerializer(className, elementType);
+            deserializer = JsonCodecGenerator.createArrayDeserializer(className, elementType);
         } else if (enum_ != null) {
+            Map<String, String> constants = new LinkedHashMap<>();
             for (String val : enum_) {
-                spec.addEnumConstant(getEnumName(val), TypeSpec.anonymousClassBuilder("")
-                    .addAnnotation(AnnotationSpec.builder(JsonProperty.class)
-                        .addMember("value", "$S", val)
-                        .build())
-                    .build());
+                constants.put(getEnumName(val), val);
+                spec.addEnumConstant(getEnumName(val), TypeSpec.anonymousClassBuilder("$S", val).build());
             }
+            spec.addField(String.class, "value", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                    .addParameter(String.class, "value")
+                    .addStatement("this.value = value")
+                    .build())
+                .addMethod(MethodSpec.methodBuilder("getValue")
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(String.class)
+                    .addJavadoc("@return the value as it appears in the protocol\n")
+                    .addStatement("return value")
+                    .build());
+            serializer = JsonCodecGenerator.createEnumSerializer(className);
+            deserializer = JsonCodecGenerator.createEnumDeserializer(className, constants);
         } else if (type != null) {
             TypeName typeName = toTypeName(domain, type, null);
             spec.addAnnotation(Data.class);
             spec.addField(FieldSpec.builder(typeName, "value")
-                .addAnnotation(JsonValue.class)
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
                 .build());
-            ClassName className = ClassName.get(getPackage(domain), simpleName);
             spec.addMethod(MethodSpec.methodBuilder("of")
-                .addAnnotation(JsonCreator.class)
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                 .addParameter(typeName, "value")
                 .returns(className)
                 .addCode("return new $T(value);\n", className)
                 .build());
+            serializer = JsonCodecGenerator.createAliasSerializer(className, typeName);
+            deserializer = JsonCodecGenerator.createAliasDeserializer(className, typeName);
+        } else {
+            throw new IllegalStateException("Type " + simpleName + " has no definition");
         }
 
-        write(getPackage(domain), spec.build());
+        return spec.addAnnotation(AnnotationSpec.builder(JsonSerialize.class)
+            .addMember("using", "$T.class", className.nestedClass(serializer.name))
+            .build())
+            .addAnnotation(AnnotationSpec.builder(JsonDeserialize.class)
+                .addMember("using", "$T.class", className.nestedClass(deserializer.name))
+                .build())
+            .addType(serializer)
+            .addType(deserializer);
+    }
+
+    /**
+     * Adds the members of a POJO class with optional primitive fields. Such fields can't be null, so
+     * instead of boxing them, whether each one is present is kept in a bitset, which the builder
+     * fills in and <code>hasX()</code> methods expose. The getters, builder, constructor and
+     * <code>of</code> factory have the same signatures as the Lombok-generated ones of other POJO
+     * classes; the constructor and <code>of</code> mark every field as present.
+     *
+     * @param spec
+     *            The class to add members to
+     * @param className
+     *            The name of the class
+     * @param properties
+     *            The fields of the class, in order
+     * @param presenceType
+     *            The type of the bitset, <code>int</code> or <code>long</code>
+     */
+    private static void addPresenceTracking(TypeSpec.Builder spec, ClassName className, List<Property> properties,
+            TypeName presenceType) {
+        ClassName builderName = className.nestedClass(className.simpleName() + "Builder");
+        spec.addAnnotation(Getter.class)
+            .addAnnotation(EqualsAndHashCode.class)
+            .addAnnotation(ToString.class);
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(builderName)
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+            .addMethod(MethodSpec.constructorBuilder().build());
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+            .addModifiers(Modifier.PUBLIC)
+            .addJavadoc("Creates an instance in which every field is present.\n");
+        MethodSpec.Builder trackingConstructor = MethodSpec.constructorBuilder()
+            .addModifiers(Modifier.PRIVATE);
+        MethodSpec.Builder of = MethodSpec.methodBuilder("of")
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+            .returns(className);
+        List<String> names = new ArrayList<>();
+        List<String> masks = new ArrayList<>();
+        for (Property property : properties) {
+            FieldSpec field = property.getField();
+            names.add(field.name);
+            spec.addField(field);
+            constructor.addParameter(field.type, field.name);
+            of.addParameter(field.type, field.name);
+            trackingConstructor.addParameter(field.type, field.name)
+                .addStatement("this.$N = $N", field.name, field.name);
+            builder.addField(field.type, field.name, Modifier.PRIVATE);
+            MethodSpec.Builder setter = MethodSpec.methodBuilder(field.name)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(field.type, field.name)
+                .returns(builderName)
+                .addStatement("this.$N = $N", field.name, field.name);
+            if (property.getMask() != null) {
+                masks.add(property.getMask());
+                setter.addStatement("$N |= $L", JsonCodecGenerator.PRESENT_FIELDS, property.getMask());
+                spec.addMethod(MethodSpec.methodBuilder("has" + WordUtils.capitalize(field.name))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(boolean.class)
+                    .addJavadoc("@return whether <code>$L</code> is present\n", property.getJsonName())
+                    .addStatement("return ($N & $L) != 0", JsonCodecGenerator.PRESENT_FIELDS, property.getMask())
+                    .build());
+            }
+            builder.addMethod(setter.addStatement("return this").build());
+        }
+        String allNames = String.join(", ", names);
+        spec.addField(FieldSpec.builder(presenceType, JsonCodecGenerator.PRESENT_FIELDS, Modifier.PRIVATE, Modifier.FINAL)
+            .addAnnotation(AnnotationSpec.builder(Getter.class)
+                .addMember("value", "$T.$L", AccessLevel.class, AccessLevel.NONE)
+                .build())
+            .build());
+        builder.addField(presenceType, JsonCodecGenerator.PRESENT_FIELDS, Modifier.PRIVATE)
+            .addMethod(MethodSpec.methodBuilder("build")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(className)
+                .addStatement("return new $T($L, $N)", className, allNames, JsonCodecGenerator.PRESENT_FIELDS)
+                .build());
+
+        spec.addMethod(constructor.addStatement("this($L, $L)", allNames, String.join(" | ", masks)).build())
+            .addMethod(trackingConstructor.addParameter(presenceType, JsonCodecGenerator.PRESENT_FIELDS)
+                .addStatement("this.$N = $N", JsonCodecGenerator.PRESENT_FIELDS, JsonCodecGenerator.PRESENT_FIELDS)
+                .build())
+            .addMethod(of.addStatement("return new $T($L)", className, allNames).build())
+            .addMethod(MethodSpec.methodBuilder("builder")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(builderName)
+                .addStatement("return new $T()", builderName)
+                .build())
+            .addType(builder.build());
     }
 
     /**
@@ -278,15 +849,39 @@ public final class ProtocolGenerator {
         }
     }
 
+    private static String getAsyncName(String domain) {
+        return "Async" + domain;
+    }
+
+    private static String getImplName(String interfaceName) {
+        return interfaceName + "Impl";
+    }
+
+    private ClassName getCommandExecutor(boolean async) {
+        return ClassName.get(outputPackage, async ? "AsyncCommandExecutor" : "CommandExecutor");
+    }
+
     private String getPackage(String domain) {
         return outputPackage + "." + domain.toLowerCase();
     }
 
+    /**
+     * Writes a generated class, unless an identical file already exists.
+     */
     private void write(String package_, TypeSpec spec) {
+        Path path = rootFile.toPath()
+            .resolve(package_.replace('.', File.separatorChar))
+            .resolve(spec.name + ".java");
+        writtenFiles.add(path);
+        byte[] content = JavaFile.builder(package_, spec)
+            .build()
+            .toString()
+            .getBytes(StandardCharsets.UTF_8);
         try {
-            JavaFile.builder(package_, spec)
-                .build()
-                .writeTo(rootFile);
+            if (Files.isRegularFile(path) && Arrays.equals(Files.readAllBytes(path), content))
+                return;
+            Files.createDirectories(path.getParent());
+            Files.write(path, content);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -300,7 +895,7 @@ public final class ProtocolGenerator {
      *            The string to convert
      * @return An identifier following naming conventions for enums
      */
-    private static String getEnumName(String val) {
+    static String getEnumName(String val) {
         StringBuilder enumName = new StringBuilder();
         for (int i = 0; i < val.length(); i++) {
             if (i > 0 && Character.isUpperCase(val.charAt(i)))
@@ -317,12 +912,12 @@ public final class ProtocolGenerator {
     }
 
     @Data
-    private static class Protocol {
+    static class Protocol {
         final List<Domain> domains;
     }
 
     @Data
-    private static class Domain {
+    static class Domain {
         final String domain;
         String description;
         boolean deprecated;
@@ -331,12 +926,15 @@ public final class ProtocolGenerator {
         List<Type> types;
         List<Command> commands;
         List<Event> events;
+        @JsonIgnore
+        boolean typesOnly;
     }
 
     @Data
-    private static class Type {
+    static class Type {
         final String id;
         String description;
+        boolean deprecated;
         boolean experimental;
         final String type;
         List<Field> properties;
@@ -346,7 +944,7 @@ public final class ProtocolGenerator {
     }
 
     @Data
-    private static class Command {
+    static class Command {
         final String name;
         String description;
         boolean deprecated;
@@ -357,7 +955,7 @@ public final class ProtocolGenerator {
     }
 
     @Data
-    private static class Event {
+    static class Event {
         final String name;
         String description;
         boolean deprecated;
@@ -366,7 +964,7 @@ public final class ProtocolGenerator {
     }
 
     @Data
-    private static class Field {
+    static class Field {
         final String name;
         String description;
         boolean deprecated;
@@ -381,19 +979,50 @@ public final class ProtocolGenerator {
     }
 
     @Data
-    private static class Items {
+    static class Items {
         String type;
         @JsonProperty("$ref")
         String ref;
     }
 
+    private static List<String> getListProperty(String name) {
+        String value = System.getProperty(name, "").trim();
+        return value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split("\\s*,\\s*"));
+    }
+
+    /**
+     * Generates the protocol sources.
+     *
+     * @param args
+     *            <code>[--update] [protocolDir] [outputDir]</code>. The schema is read from the files
+     *            vendored in <code>protocolDir</code> (default <code>protocol</code>). If they are
+     *            missing, or with <code>--update</code>, the schema is first downloaded at the
+     *            devtools-protocol commit given by the <code>chromej.protocolRevision</code> system
+     *            property (default: the commit recorded in <code>protocolDir</code>, or else the
+     *            latest commit). The {@link ProtocolFilter} is configured by
+     *            the system properties <code>chromej.includeDomains</code> and
+     *            <code>chromej.excludeDomains</code> (comma-separated), and
+     *            <code>chromej.includeExperimental</code> and <code>chromej.includeDeprecated</code>
+     *            (default true).
+     */
     public static void main(String[] args) {
-        log.info("Generating websocket protocol...");
-        new ProtocolGenerator(
-            URI.create("https://raw.githubusercontent.com/ChromeDevTools/debugger-protocol-viewer/master/_data/tot/protocol.json"),
-            new File("../ws-protocol/src/main/java"),
-            "io.github.ejif.chromej.protocol")
-                .generate();
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean update = arguments.remove("--update");
+        File protocolDir = new File(arguments.size() > 0 ? arguments.get(0) : "protocol");
+        File outputDir = new File(arguments.size() > 1 ? arguments.get(1) : "../ws-protocol/src/main/java");
+        ProtocolSource source = new ProtocolSource(protocolDir);
+        List<File> protocolFiles = update
+                ? source.update(System.getProperty("chromej.protocolRevision"))
+                : source.getFiles(System.getProperty("chromej.protocolRevision"));
+        log.info("Generating websocket protocol from devtools-protocol {}...", source.getRevision());
+        ProtocolFilter filter = ProtocolFilter.builder()
+            .includeDomains(getListProperty("chromej.includeDomains"))
+            .excludeDomains(getListProperty("chromej.excludeDomains"))
+            .includeExperimental(Boolean.parseBoolean(System.getProperty("chromej.includeExperimental", "true")))
+            .includeDeprecated(Boolean.parseBoolean(System.getProperty("chromej.includeDeprecated", "true")))
+            .build();
+        new ProtocolGenerator(protocolFiles, outputDir, "io.github.ejif.chromej.protocol", filter)
+            .generate();
         log.info("Done generating websocket protocol.");
     }
 }
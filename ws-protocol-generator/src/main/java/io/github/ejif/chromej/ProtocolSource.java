@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Locates the protocol schema that the generator reads. The schema is vendored as
+ * <code>browser_protocol.json</code> and <code>js_protocol.json</code> in a directory that is
+ * checked in, together with a <code>REVISION</code> file holding the commit of the
+ * <a href="https://github.com/ChromeDevTools/devtools-protocol">devtools-protocol</a> repository
+ * they were taken from. Generating reads the vendored files without touching the network. Until
+ * they are checked in, a missing schema is downloaded once, at an exact commit, and saved to the
+ * directory together with that commit, so it can be committed.
+ */
+@RequiredArgsConstructor
+final class ProtocolSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ProtocolSource.class);
+
+    static final List<String> FILE_NAMES = Arrays.asList("browser_protocol.json", "js_protocol.json");
+    static final String REVISION_FILE_NAME = "REVISION";
+
+    private static final String DOWNLOAD_URL = "https://raw.githubusercontent.com/ChromeDevTools/devtools-protocol/%s/json/%s";
+    private static final String LATEST_COMMIT_URL = "https://api.github.com/repos/ChromeDevTools/devtools-protocol/commits/master";
+    private static final Pattern COMMIT = Pattern.compile("[0-9a-f]{40}");
+
+    private final File directory;
+
+    /**
+     * Returns the vendored schema files. If any of them is missing, the schema is downloaded
+     * first, at the given commit, or else the recorded commit, or else the latest commit of
+     * devtools-protocol.
+     *
+     * @param revision
+     *            The full hash of a devtools-protocol commit to download a missing schema at, or
+     *            null
+     * @return The schema files
+     */
+    List<File> getFiles(String revision) {
+        List<File> files = new ArrayList<>();
+        for (String fileName : FILE_NAMES) {
+            File file = new File(directory, fileName);
+            if (!file.isFile()) {
+                if (revision == null)
+                    revision = getRevision();
+                if (revision == null)
+                    revision = getLatestRevision();
+                log.warn("{} is missing; downloading the protocol schema at devtools-protocol {}. Commit {} so builds don't "
+                        + "need the network.", file, revision, directory);
+                return update(revision);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Reads the commit that the vendored schema was taken from.
+     *
+     * @return The commit hash, or null if it has not been recorded
+     */
+    String getRevision() {
+        File file = new File(directory, REVISION_FILE_NAME);
+        try {
+            return file.isFile() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Downloads the schema at the given commit, replacing the vendored copies, and records the
+     * commit.
+     *
+     * @param revision
+     *            The full hash of a devtools-protocol commit, or null to download the recorded
+     *            commit again
+     * @return The schema files
+     */
+    List<File> update(String revision) {
+        if (revision == null)
+            revision = getRevision();
+        if (revision == null || !COMMIT.matcher(revision).matches())
+            throw new IllegalArgumentException(String.format(
+                "The protocol must be pinned to the full hash of a devtools-protocol commit, not '%s'; pass -PprotocolRevision=<commit>",
+                revision));
+        List<File> files = new ArrayList<>();
+        for (String fileName : FILE_NAMES) {
+            File file = new File(directory, fileName);
+            download(revision, fileName, file);
+            files.add(file);
+        }
+        try {
+            Files.write(new File(directory, REVISION_FILE_NAME).toPath(), (revision + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return files;
+    }
+
+    /**
+     * Looks up the commit that the master branch of devtools-protocol points to.
+     */
+    private static String getLatestRevision() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(LATEST_COMMIT_URL).openConnection();
+            connection.setRequestProperty("Accept", "application/vnd.github.sha");
+            connection.setRequestProperty("User-Agent", "chromej");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                return reader.readLine().trim();
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to look up the latest devtools-protocol commit at %s", LATEST_COMMIT_URL), e);
+        }
+    }
+
+    private void download(String revision, String fileName, File file) {
+        String url = String.format(DOWNLOAD_URL, revision, fileName);
+        log.info("Downloading {} to {}...", url, file);
+        try {
+            Files.createDirectories(directory.toPath());
+            Path temp = Files.createTempFile(directory.toPath(), fileName, ".tmp");
+            try (InputStream in = new URL(url).openStream()) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to download %s", url), e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2019 Jenny Liang
+ */
+
+package io.github.ejif.chromej;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.ejif.chromej.ProtocolGenerator.Command;
+import io.github.ejif.chromej.ProtocolGenerator.Domain;
+import io.github.ejif.chromej.ProtocolGenerator.Event;
+import io.github.ejif.chromej.ProtocolGenerator.Field;
+import io.github.ejif.chromej.ProtocolGenerator.Protocol;
+import io.github.ejif.chromej.ProtocolGenerator.Type;
+
+public final class ProtocolFilterTest {
+
+    private static final File RUNTIME_SOURCES = new File("../chromej/src/main/java");
+    private static final Pattern PROTOCOL_IMPORT = Pattern.compile(
+        "import io\\.github\\.ejif\\.chromej\\.protocol\\.([a-z]+)\\.([A-Za-z]+?)(Request|Response|Event);");
+    private static final Pattern METHOD_NAME = Pattern.compile("\"([A-Z][A-Za-z]*)\\.([a-z][A-Za-z]*)\"");
+    private static final Pattern DOMAIN_CALL = Pattern.compile("(?=get([A-Z][A-Za-z]*)\\(\\)\\s*\\.\\s*([a-z][A-Za-z]*)\\()");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFiltersExperimentalAndDeprecatedItems() throws Exception {
+        File schema = folder.newFile("protocol.json");
+        Files.write(schema.toPath(), ("{\"domains\":[{\"domain\":\"Foo\","
+                + "\"types\":["
+                + "{\"id\":\"Stable\",\"type\":\"object\",\"properties\":["
+                + "{\"name\":\"a\",\"type\":\"string\"},"
+                + "{\"name\":\"b\",\"type\":\"string\",\"optional\":true,\"experimental\":true},"
+                + "{\"name\":\"c\",\"$ref\":\"Experimental\",\"optional\":true}]},"
+                + "{\"id\":\"Experimental\",\"type\":\"object\",\"experimental\":true,\"properties\":["
+                + "{\"name\":\"x\",\"type\":\"string\"}]},"
+                + "{\"id\":\"NeededExperimental\",\"type\":\"string\",\"experimental\":true},"
+                + "{\"id\":\"Unused\",\"type\":\"string\"}],"
+                + "\"commands\":["
+                + "{\"name\":\"doIt\",\"parameters\":["
+                + "{\"name\":\"needed\",\"$ref\":\"NeededExperimental\"},"
+                + "{\"name\":\"experimental\",\"type\":\"string\",\"optional\":true,\"experimental\":true},"
+                + "{\"name\":\"stable\",\"$ref\":\"Stable\",\"optional\":true},"
+                + "{\"name\":\"list\",\"type\":\"array\",\"items\":{\"$ref\":\"Experimental\"},\"optional\":true}],"
+                + "\"returns\":[{\"name\":\"deprecated\",\"type\":\"string\",\"optional\":true,\"deprecated\":true}]},"
+                + "{\"name\":\"experimentalCommand\",\"experimental\":true}],"
+                + "\"events\":[{\"name\":\"changed\",\"parameters\":["
+                + "{\"name\":\"experimental\",\"type\":\"string\",\"optional\":true,\"experimental\":true}]}]}]}")
+            .getBytes(StandardCharsets.UTF_8));
+
+        Protocol protocol = filter(Collections.singletonList(schema), ProtocolFilter.builder()
+            .includeExperimental(false)
+            .includeDeprecated(false)
+            .build());
+
+        Domain foo = protocol.getDomains().get(0);
+        Command doIt = single(foo.getCommands());
+        assertThat(doIt.getName()).isEqualTo("doIt");
+        assertThat(names(doIt.getParameters(), Field::getName)).containsExactly("needed", "stable");
+        assertThat(doIt.getReturns()).isEmpty();
+        assertThat(single(foo.getEvents()).getParameters()).isEmpty();
+        assertThat(names(foo.getTypes(), Type::getId)).containsExactlyInAnyOrder("Stable", "NeededExperimental");
+        Type stable = foo.getTypes().stream().filter(type -> type.getId().equals("Stable")).findFirst().get();
+        assertThat(names(stable.getProperties(), Field::getName)).containsExactly("a");
+    }
+
+    @Test
+    public void testKeepsEverythingTheRuntimeUses() throws Exception {
+        List<File> schema = new ProtocolSource(new File("protocol")).getFiles(System.getProperty("chromej.protocolRevision"));
+        ProtocolGenerator generator = new ProtocolGenerator(schema, folder.getRoot(), "test", ProtocolFilter.all());
+        Protocol full = generator.getProtocol();
+        Set<String> used = getUsedByRuntime(full);
+        assertThat(used).contains("Page.navigate", "Page.lifecycleEvent", "Target.attachToTarget");
+
+        // nothing but the required items passes this filter
+        Protocol filtered = filter(schema, ProtocolFilter.builder()
+            .includeDomain("None")
+            .includeExperimental(false)
+            .includeDeprecated(false)
+            .build());
+        Set<String> kept = new TreeSet<>();
+        for (Domain domain : filtered.getDomains()) {
+            for (Command command : domain.getCommands())
+                kept.add(domain.getDomain() + '.' + command.getName());
+            for (Event event : domain.getEvents())
+                kept.add(domain.getDomain() + '.' + event.getName());
+        }
+        assertThat(kept).containsAll(used);
+        assertThat(ProtocolFilter.REQUIRED).containsAll(used);
+    }
+
+    private Protocol filter(List<File> schema, ProtocolFilter filter) {
+        ProtocolGenerator generator = new ProtocolGenerator(schema, folder.getRoot(), "test", filter);
+        return generator.filter(generator.getProtocol());
+    }
+
+    /**
+     * Finds the commands and events that the chromej runtime refers to: by the request, response or
+     * event classes it imports, by name, or by calling them on a domain of the protocol.
+     */
+    private static Set<String> getUsedByRuntime(Protocol protocol) throws IOException {
+        Map<String, String> domainsByPackage = protocol.getDomains().stream()
+            .collect(Collectors.toMap(domain -> domain.getDomain().toLowerCase(Locale.ROOT), Domain::getDomain));
+        Set<String> items = protocol.getDomains().stream()
+            .flatMap(domain -> Stream.concat(
+                domain.getCommands() == null ? Stream.empty() : domain.getCommands().stream().map(Command::getName),
+                domain.getEvents() == null ? Stream.empty() : domain.getEvents().stream().map(Event::getName))
+                .map(name -> domain.getDomain() + '.' + name))
+            .collect(Collectors.toSet());
+
+        Set<String> used = new TreeSet<>();
+        List<Path> sources;
+        try (Stream<Path> paths = Files.walk(RUNTIME_SOURCES.toPath())) {
+            sources = paths.filter(path -> path.toString().endsWith(".java")).collect(Collectors.toList());
+        }
+        assertThat(sources).isNotEmpty();
+        for (Path source : sources) {
+            String code = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+            Matcher matcher = PROTOCOL_IMPORT.matcher(code);
+            while (matcher.find()) {
+                String name = matcher.group(2);
+                used.add(domainsByPackage.get(matcher.group(1)) + '.' + Character.toLowerCase(name.charAt(0)) + name.substring(1));
+            }
+            for (Pattern pattern : new Pattern[] { METHOD_NAME, DOMAIN_CALL }) {
+                matcher = pattern.matcher(code);
+                while (matcher.find())
+                    if (items.contains(matcher.group(1) + '.' + matcher.group(2)))
+                        used.add(matcher.group(1) + '.' + matcher.group(2));
+            }
+        }
+        assertThat(items).containsAll(used);
+        return used;
+    }
+
+    private static <T> T single(List<T> list) {
+        assertThat(list).hasSize(1);
+        return list.get(0);
+    }
+
+    private static <T> List<String> names(List<T> list, Function<T, String> name) {
+        return list.stream().map(name).collect(Collectors.toList());
+    }
+}